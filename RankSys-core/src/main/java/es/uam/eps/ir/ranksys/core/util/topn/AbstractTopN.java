@@ -61,14 +61,8 @@ public abstract class AbstractTopN<T> extends AbstractCollection<T> {
     @Override
     public boolean add(T elem) {
         if (size < capacity) {
-            int i = size;
-            int j = parent(i);
-            set(i, elem);
-            while (i > 0 && compare(j, i) > 0) {
-                swap(i, j);
-                i = j;
-                j = parent(i);
-            }
+            set(size, elem);
+            siftUp(size);
             size++;
 
             return true;
@@ -76,14 +70,8 @@ public abstract class AbstractTopN<T> extends AbstractCollection<T> {
             if (compare(0, elem) >= 0) {
                 return false;
             }
-            int i = 0;
-            int j = minChild(i);
-            set(i, elem);
-            while (j != -1 && compare(i, j) > 0) {
-                swap(i, j);
-                i = j;
-                j = minChild(i);
-            }
+            set(0, elem);
+            siftDown(0);
 
             return true;
         }
@@ -100,13 +88,7 @@ public abstract class AbstractTopN<T> extends AbstractCollection<T> {
             swap(0, size - 1);
             size--;
             capacity--;
-            int i = 0;
-            int j = minChild(i);
-            while (j != -1 && compare(i, j) > 0) {
-                swap(i, j);
-                i = j;
-                j = minChild(i);
-            }
+            siftDown(0);
         }
         size = origSize;
         capacity = origCapacity;
@@ -212,7 +194,43 @@ public abstract class AbstractTopN<T> extends AbstractCollection<T> {
         }
     }
 
-    private int minChild(int i) {
+    /**
+     * Moves the element at a position up the heap until its parent is not
+     * greater.
+     *
+     * @param i position of the element
+     */
+    protected void siftUp(int i) {
+        int j = parent(i);
+        while (i > 0 && compare(j, i) > 0) {
+            swap(i, j);
+            i = j;
+            j = parent(i);
+        }
+    }
+
+    /**
+     * Moves the element at a position down the heap until no child is
+     * smaller.
+     *
+     * @param i position of the element
+     */
+    protected void siftDown(int i) {
+        int j = minChild(i);
+        while (j != -1 && compare(i, j) > 0) {
+            swap(i, j);
+            i = j;
+            j = minChild(i);
+        }
+    }
+
+    /**
+     * Returns the position of the smallest child of an element.
+     *
+     * @param i position of the element
+     * @return position of the smallest child, -1 if none
+     */
+    protected int minChild(int i) {
         int l = left(i);
         int r = right(i);
 
@@ -227,7 +245,13 @@ public abstract class AbstractTopN<T> extends AbstractCollection<T> {
         return compare(l, r) < 0 ? l : r;
     }
 
-    private int parent(int i) {
+    /**
+     * Returns the position of the parent of an element.
+     *
+     * @param i position of the element
+     * @return position of the parent
+     */
+    protected int parent(int i) {
         return (i - 1) / 2;
     }
 
@@ -8,17 +8,26 @@
  */
 package es.uam.eps.ir.ranksys.fast;
 
+import java.util.AbstractList;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * Fast recommendation, where users and items are identified by index.
+ * <br>
+ * A recommendation can be backed by a list of item-score pairs or by a pair
+ * of parallel arrays of item indexes and scores, which avoids creating one
+ * object per recommended item. Each representation is derived from the other
+ * on demand.
  *
  * @author Saúl Vargas (saul.vargas@uam.es)
  */
 public class FastRecommendation {
 
     private final int uidx;
-    private final List<IdxDouble> iidxs;
+    private List<IdxDouble> iidxs;
+    private int[] iidxArray;
+    private double[] scoreArray;
 
     /**
      * Constructor.
@@ -31,6 +40,19 @@ public class FastRecommendation {
         this.iidxs = iidxs;
     }
 
+    /**
+     * Constructor for an array-backed recommendation.
+     *
+     * @param uidx index of the user
+     * @param iidxs indexes of the recommended items, by decreasing score
+     * @param scores scores of the recommended items
+     */
+    public FastRecommendation(int uidx, int[] iidxs, double[] scores) {
+        this.uidx = uidx;
+        this.iidxArray = iidxs;
+        this.scoreArray = scores;
+    }
+
     /**
      * Returns the index of the user for which the recommendation is issued.
      *
@@ -41,11 +63,86 @@ public class FastRecommendation {
     }
 
     /**
-     * Returns the list of item-score pairs identified by index.
+     * Returns the list of item-score pairs identified by index. For
+     * array-backed recommendations, this is a read-only view that creates
+     * the pairs as they are accessed.
      *
      * @return the list of item-score pairs
      */
     public List<IdxDouble> getIidxs() {
+        if (iidxs == null) {
+            iidxs = new ArrayView(iidxArray, scoreArray);
+        }
         return iidxs;
     }
+
+    /**
+     * Returns the number of recommended items.
+     *
+     * @return number of recommended items
+     */
+    public int size() {
+        return iidxArray != null ? iidxArray.length : iidxs.size();
+    }
+
+    /**
+     * Returns the indexes of the recommended items. The array must not be
+     * modified.
+     *
+     * @return array of item indexes
+     */
+    public int[] getIidxArray() {
+        if (iidxArray == null) {
+            fillArrays();
+        }
+        return iidxArray;
+    }
+
+    /**
+     * Returns the scores of the recommended items, in the same order as
+     * {@link #getIidxArray()}. The array must not be modified.
+     *
+     * @return array of scores
+     */
+    public double[] getScoreArray() {
+        if (scoreArray == null) {
+            fillArrays();
+        }
+        return scoreArray;
+    }
+
+    private void fillArrays() {
+        int n = iidxs.size();
+        int[] is = new int[n];
+        double[] vs = new double[n];
+        int j = 0;
+        for (IdxDouble iv : iidxs) {
+            is[j] = iv.idx;
+            vs[j] = iv.v;
+            j++;
+        }
+        scoreArray = vs;
+        iidxArray = is;
+    }
+
+    private static class ArrayView extends AbstractList<IdxDouble> implements RandomAccess {
+
+        private final int[] iidxs;
+        private final double[] scores;
+
+        public ArrayView(int[] iidxs, double[] scores) {
+            this.iidxs = iidxs;
+            this.scores = scores;
+        }
+
+        @Override
+        public IdxDouble get(int index) {
+            return new IdxDouble(iidxs[index], scores[index]);
+        }
+
+        @Override
+        public int size() {
+            return iidxs.length;
+        }
+    }
 }
@@ -14,6 +14,7 @@ import it.unimi.dsi.fastutil.ints.AbstractInt2DoubleMap.BasicEntry;
 
 /**
  * Bounded min-heap to keep just the top-n greatest integer-double pairs according to the value of the double.
+ * Pairs are stored in primitive arrays, and adding them does not allocate objects.
  *
  * @author Saúl Vargas (saul.vargas@uam.es)
  */
@@ -41,7 +42,62 @@ public class IntDoubleTopN extends AbstractTopN<Entry> {
      * @return true if the pair was added to the heap, false otherwise
      */
     public boolean add(int key, double value) {
-        return add(new BasicEntry(key, value));
+        if (size < capacity) {
+            keys[size] = key;
+            values[size] = value;
+            siftUp(size);
+            size++;
+
+            return true;
+        } else {
+            if (compare(0, key, value) >= 0) {
+                return false;
+            }
+            keys[0] = key;
+            values[0] = value;
+            siftDown(0);
+
+            return true;
+        }
+    }
+
+    /**
+     * Returns the integer of the i-th pair in the heap, or in the order left
+     * by {@link #sort()}.
+     *
+     * @param i position in the heap
+     * @return integer of the pair
+     */
+    public int getIntAt(int i) {
+        return keys[i];
+    }
+
+    /**
+     * Returns the double of the i-th pair in the heap, or in the order left
+     * by {@link #sort()}.
+     *
+     * @param i position in the heap
+     * @return double of the pair
+     */
+    public double getDoubleAt(int i) {
+        return values[i];
+    }
+
+    /**
+     * Returns the smallest double in the heap.
+     *
+     * @return double at the top of the heap
+     */
+    public double peekDouble() {
+        return values[0];
+    }
+
+    /**
+     * Empties the heap, so that it can be reused.
+     */
+    @Override
+    public void clear() {
+        size = 0;
     }
 
     @Override
@@ -57,9 +113,10 @@ public class IntDoubleTopN extends AbstractTopN<Entry> {
 
     @Override
     protected int compare(int i, Entry e) {
-        int k = e.getIntKey();
-        double v = e.getDoubleValue();
+        return compare(i, e.getIntKey(), e.getDoubleValue());
+    }
 
+    private int compare(int i, int k, double v) {
         int c = Double.compare(values[i], v);
         if (c != 0) {
             return c;
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.fast.utils;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import java.util.Arrays;
+
+/**
+ * Dense accumulator of double values for indices in [0, n). It keeps track of
+ * the indices that have been touched since the last clear, so that sparse
+ * results can be iterated and cleared in time proportional to their size,
+ * while dense results are cleared by filling the whole array.
+ * <br>
+ * It is intended to be reused between calls (e.g., in a ThreadLocal) to avoid
+ * the allocation and hashing costs of maps. It is not thread-safe.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public class DenseAccumulator {
+
+    private final double[] values;
+    private final boolean[] touched;
+    private final int[] keys;
+    private int size;
+
+    /**
+     * Constructor.
+     *
+     * @param n number of indices
+     */
+    public DenseAccumulator(int n) {
+        this.values = new double[n];
+        this.touched = new boolean[n];
+        this.keys = new int[n];
+        this.size = 0;
+    }
+
+    /**
+     * Adds a value to the one accumulated for an index.
+     *
+     * @param idx index
+     * @param v value to be added
+     */
+    public void add(int idx, double v) {
+        if (!touched[idx]) {
+            touched[idx] = true;
+            keys[size++] = idx;
+        }
+        values[idx] += v;
+    }
+
+    /**
+     * Returns the value accumulated for an index.
+     *
+     * @param idx index
+     * @return accumulated value, 0.0 if not touched
+     */
+    public double get(int idx) {
+        return values[idx];
+    }
+
+    /**
+     * Checks whether an index has been touched since the last clear.
+     *
+     * @param idx index
+     * @return true if a value has been added for the index, false otherwise
+     */
+    public boolean contains(int idx) {
+        return touched[idx];
+    }
+
+    /**
+     * Returns the number of touched indices.
+     *
+     * @return number of touched indices
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the i-th touched index, in order of first addition.
+     *
+     * @param i position in the list of touched indices
+     * @return touched index
+     */
+    public int key(int i) {
+        return keys[i];
+    }
+
+    /**
+     * Returns the range of indices of the accumulator.
+     *
+     * @return number of indices
+     */
+    public int capacity() {
+        return values.length;
+    }
+
+    /**
+     * Resets all the accumulated values.
+     */
+    public void clear() {
+        if (size > values.length / 8) {
+            Arrays.fill(values, 0.0);
+            Arrays.fill(touched, false);
+        } else {
+            for (int i = 0; i < size; i++) {
+                int idx = keys[i];
+                values[idx] = 0.0;
+                touched[idx] = false;
+            }
+        }
+        size = 0;
+    }
+
+    /**
+     * Copies the touched indices and their values into a map.
+     *
+     * @return map of index-value pairs
+     */
+    public Int2DoubleOpenHashMap toMap() {
+        Int2DoubleOpenHashMap map = new Int2DoubleOpenHashMap(size);
+        map.defaultReturnValue(0.0);
+        for (int i = 0; i < size; i++) {
+            int idx = keys[i];
+            map.put(idx, values[idx]);
+        }
+        return map;
+    }
+}
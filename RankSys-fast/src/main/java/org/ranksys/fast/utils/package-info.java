@@ -0,0 +1,11 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+/**
+ * Utilities for the fast calculation of scores.
+ */
+package org.ranksys.fast.utils;
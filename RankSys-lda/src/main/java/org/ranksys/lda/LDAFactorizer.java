@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.lda;
+
+import cc.mallet.topics.ParallelTopicModel;
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import es.uam.eps.ir.ranksys.mf.Factorization;
+import es.uam.eps.ir.ranksys.mf.Factorizer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import static java.lang.Math.log;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.ranksys.mf.matrix.DenseFactorMatrix;
+import org.ranksys.mf.matrix.FactorMatrix;
+
+/**
+ * Latent Dirichlet allocation of user profiles as documents whose words are
+ * the items the user has interacted with, one token per preference, fitted
+ * by Mallet's parallel Gibbs sampler. The result is a factorization whose
+ * user vectors are the topic mixtures p(z|u) and whose item vectors are the
+ * item distributions of the topics p(i|z), so that a
+ * {@link es.uam.eps.ir.ranksys.mf.rec.MFRecommender} scores items by
+ * p(i|u).
+ * <br>
+ * D. M. Blei, A. Y. Ng and M. I. Jordan. Latent Dirichlet allocation. JMLR
+ * 2003.
+ * <br>
+ * D. Newman, A. Asuncion, P. Smyth and M. Welling. Distributed algorithms for
+ * topic models. JMLR 2009.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <U> type of the users
+ * @param <I> type of the items
+ */
+public class LDAFactorizer<U, I> extends Factorizer<U, I> {
+
+    private static final Logger LOG = Logger.getLogger(LDAFactorizer.class.getName());
+
+    private final double alpha;
+    private final double beta;
+    private final int numIter;
+    private final int numThreads;
+
+    /**
+     * Constructor that samples with as many threads as processors.
+     *
+     * @param alpha concentration of the topic mixtures of the users, per
+     * topic
+     * @param beta concentration of the item distributions of the topics
+     * @param numIter number of Gibbs sampling iterations
+     */
+    public LDAFactorizer(double alpha, double beta, int numIter) {
+        this(alpha, beta, numIter, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param alpha concentration of the topic mixtures of the users, per
+     * topic
+     * @param beta concentration of the item distributions of the topics
+     * @param numIter number of Gibbs sampling iterations
+     * @param numThreads number of sampling threads
+     */
+    public LDAFactorizer(double alpha, double beta, int numIter, int numThreads) {
+        this.alpha = alpha;
+        this.beta = beta;
+        this.numIter = numIter;
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Average negative log-likelihood of the preferences, -log p(i|u), whose
+     * exponential is the perplexity of the model.
+     *
+     * @param factorization matrix factorization
+     * @param data preference data
+     * @return the average negative log-likelihood
+     */
+    @Override
+    public double error(Factorization<U, I> factorization, FastPreferenceData<U, I> data) {
+        FactorMatrix p = factorization.getUserFactors();
+        FactorMatrix q = factorization.getItemFactors();
+
+        double error = data.getUidxWithPreferences().parallel().mapToDouble(uidx -> {
+            double[] pu = new double[p.columns()];
+            p.getRow(uidx, pu);
+            return data.getUidxPreferences(uidx)
+                    .mapToDouble(iv -> -log(q.dot(iv.idx, pu)))
+                    .sum();
+        }).sum();
+
+        return error / data.numPreferences();
+    }
+
+    @Override
+    public Factorization<U, I> factorize(int K, FastPreferenceData<U, I> data) {
+        Factorization<U, I> factorization = new Factorization<>(data, data, K, x -> 0.0);
+        factorize(factorization, data);
+        return factorization;
+    }
+
+    /**
+     * Fits the model into the matrices of a factorization. Gibbs sampling
+     * starts from random topic assignments, so the previous values of the
+     * factorization are not used.
+     *
+     * @param factorization matrix factorization
+     * @param data preference data
+     */
+    @Override
+    public void factorize(Factorization<U, I> factorization, FastPreferenceData<U, I> data) {
+        DenseFactorMatrix p = factorization.getUserFactors().asDense();
+        DenseFactorMatrix q = factorization.getItemFactors().asDense();
+        int K = factorization.getK();
+
+        int[] uidxs = data.getUidxWithPreferences().toArray();
+
+        ParallelTopicModel topicModel = new ParallelTopicModel(K, alpha * K, beta);
+        topicModel.setNumIterations(numIter);
+        topicModel.setNumThreads(numThreads);
+        topicModel.setTopicDisplay(0, 0);
+        topicModel.addInstances(toInstances(data, uidxs));
+
+        long time0 = System.nanoTime();
+        try {
+            topicModel.estimate();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        long time1 = System.nanoTime() - time0;
+        LOG.log(Level.INFO, String.format("lda n = %3d t = %.2fs", numIter, time1 / 1_000_000_000.0));
+
+        p.fill(0.0);
+        for (int d = 0; d < uidxs.length; d++) {
+            p.setRow(uidxs[d], topicModel.getTopicProbabilities(d));
+        }
+
+        // type-topic counts are packed as count << topicBits | topic
+        double[] smoothing = new double[K];
+        for (int z = 0; z < K; z++) {
+            smoothing[z] = 1.0 / (topicModel.tokensPerTopic[z] + topicModel.betaSum);
+        }
+        double[] qi = new double[K];
+        for (int iidx = 0; iidx < q.rows(); iidx++) {
+            for (int z = 0; z < K; z++) {
+                qi[z] = topicModel.beta * smoothing[z];
+            }
+            for (int packed : topicModel.typeTopicCounts[iidx]) {
+                int count = packed >> topicModel.topicBits;
+                if (count <= 0) {
+                    break;
+                }
+                int z = packed & topicModel.topicMask;
+                qi[z] += count * smoothing[z];
+            }
+            q.setRow(iidx, qi);
+        }
+    }
+
+    /**
+     * Converts user profiles into Mallet instances whose features are item
+     * indexes, with an alphabet that maps each item index to itself.
+     */
+    private static <U, I> InstanceList toInstances(FastPreferenceData<U, I> data, int[] uidxs) {
+        Alphabet alphabet = new Alphabet(data.numItems());
+        for (int iidx = 0; iidx < data.numItems(); iidx++) {
+            alphabet.lookupIndex(iidx);
+        }
+        alphabet.stopGrowth();
+
+        InstanceList instances = new InstanceList(alphabet, null);
+        for (int uidx : uidxs) {
+            int[] features = data.getUidxPreferences(uidx).mapToInt(iv -> iv.idx).toArray();
+            instances.add(new Instance(new FeatureSequence(alphabet, features), null, uidx, null));
+        }
+
+        return instances;
+    }
+}
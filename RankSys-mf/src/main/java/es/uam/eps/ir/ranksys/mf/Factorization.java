@@ -25,9 +25,21 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import java.util.function.IntUnaryOperator;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
+import org.ranksys.mf.matrix.DenseFactorMatrix;
+import org.ranksys.mf.matrix.FactorMatrix;
+import org.ranksys.mf.matrix.MappedFactorMatrix;
 
 /**
  * Matrix factorization.
@@ -39,15 +51,20 @@ import java.util.zip.ZipOutputStream;
  */
 public class Factorization<U, I> implements FastItemIndex<I>, FastUserIndex<U> {
 
+    private static final int BINARY_MAGIC = 0x464d5352; // "RSMF"
+    private static final int BINARY_VERSION = 1;
+    private static final int BINARY_HEADER_BYTES = 64;
+    private static final int BINARY_BUFFER_BYTES = 1 << 20;
+
     /**
      * user matrix
      */
-    protected final DenseDoubleMatrix2D userMatrix;
+    protected final FactorMatrix userMatrix;
 
     /**
      * item matrix
      */
-    protected final DenseDoubleMatrix2D itemMatrix;
+    protected final FactorMatrix itemMatrix;
 
     /**
      * dimensionality of the vector space
@@ -73,17 +90,19 @@ public class Factorization<U, I> implements FastItemIndex<I>, FastUserIndex<U> {
      * @param initFunction function to initialize the cells of the matrices
      */
     public Factorization(FastUserIndex<U> uIndex, FastItemIndex<I> iIndex, int K, DoubleFunction initFunction) {
-        this.userMatrix = new DenseDoubleMatrix2D(uIndex.numUsers(), K);
-        this.userMatrix.assign(initFunction);
-        this.itemMatrix = new DenseDoubleMatrix2D(iIndex.numItems(), K);
-        this.itemMatrix.assign(initFunction);
+        DenseFactorMatrix p = new DenseFactorMatrix(uIndex.numUsers(), K);
+        p.assign(() -> initFunction.apply(0.0));
+        DenseFactorMatrix q = new DenseFactorMatrix(iIndex.numItems(), K);
+        q.assign(() -> initFunction.apply(0.0));
+        this.userMatrix = p;
+        this.itemMatrix = q;
         this.K = K;
         this.uIndex = uIndex;
         this.iIndex = iIndex;
     }
 
     /**
-     * Constructor for stored factorizations.
+     * Constructor for already calculated or stored factorizations.
      *
      * @param uIndex fast user index
      * @param iIndex fast item index
@@ -91,7 +110,7 @@ public class Factorization<U, I> implements FastItemIndex<I>, FastUserIndex<U> {
      * @param itemMatrix item matrix
      * @param K dimension of the latent feature space
      */
-    protected Factorization(FastUserIndex<U> uIndex, FastItemIndex<I> iIndex, DenseDoubleMatrix2D userMatrix, DenseDoubleMatrix2D itemMatrix, int K) {
+    public Factorization(FastUserIndex<U> uIndex, FastItemIndex<I> iIndex, FactorMatrix userMatrix, FactorMatrix itemMatrix, int K) {
         this.userMatrix = userMatrix;
         this.itemMatrix = itemMatrix;
         this.K = K;
@@ -150,7 +169,7 @@ public class Factorization<U, I> implements FastItemIndex<I>, FastUserIndex<U> {
         if (uidx < 0) {
             return null;
         } else {
-            return userMatrix.viewRow(uidx);
+            return userMatrix.toColt(uidx);
         }
     }
 
@@ -165,25 +184,45 @@ public class Factorization<U, I> implements FastItemIndex<I>, FastUserIndex<U> {
         if (iidx < 0) {
             return null;
         } else {
-            return itemMatrix.viewRow(iidx);
+            return itemMatrix.toColt(iidx);
         }
     }
 
     /**
-     * Returns the whole user matrix.
+     * Returns the whole user matrix as a Colt matrix. For dense factor
+     * matrices, the Colt matrix is a view that shares their values.
      *
      * @return the whole user matrix
      */
     public DenseDoubleMatrix2D getUserMatrix() {
-        return userMatrix;
+        return userMatrix.toColt();
     }
 
     /**
-     * Returns the whole item matrix.
+     * Returns the whole item matrix as a Colt matrix. For dense factor
+     * matrices, the Colt matrix is a view that shares their values.
      *
      * @return the whole item matrix
      */
     public DenseDoubleMatrix2D getItemMatrix() {
+        return itemMatrix.toColt();
+    }
+
+    /**
+     * Returns the user factor matrix.
+     *
+     * @return the user factor matrix
+     */
+    public FactorMatrix getUserFactors() {
+        return userMatrix;
+    }
+
+    /**
+     * Returns the item factor matrix.
+     *
+     * @return the item factor matrix
+     */
+    public FactorMatrix getItemFactors() {
         return itemMatrix;
     }
 
@@ -196,10 +235,64 @@ public class Factorization<U, I> implements FastItemIndex<I>, FastUserIndex<U> {
         return K;
     }
 
-    private static void saveDenseDoubleMatrix2D(OutputStream stream, DenseDoubleMatrix2D matrix) throws IOException {
+    /**
+     * Returns a factorization that shares the indexes and the user matrix of
+     * this one with another item matrix, e.g., a reduced-precision copy for
+     * serving such as {@link org.ranksys.mf.matrix.FloatFactorMatrix} or
+     * {@link org.ranksys.mf.matrix.QuantizedFactorMatrix}.
+     *
+     * @param itemMatrix item matrix with the same dimensions
+     * @return factorization with the given item matrix
+     */
+    public Factorization<U, I> withItemFactors(FactorMatrix itemMatrix) {
+        if (itemMatrix.rows() != this.itemMatrix.rows() || itemMatrix.columns() != K) {
+            throw new IllegalArgumentException("item matrix dimensions do not match");
+        }
+        return new Factorization<>(uIndex, iIndex, userMatrix, itemMatrix, K);
+    }
+
+    /**
+     * Maps this factorization onto new user and item indexes by identifier,
+     * e.g., to warm-start a factorizer after the indexes have grown. Rows of
+     * users and items of this factorization are copied, the rest are
+     * initialized with the given function. This factorization is not
+     * modified.
+     *
+     * @param uIndex new fast user index
+     * @param iIndex new fast item index
+     * @param initFunction function to initialize the cells of new rows
+     * @return factorization with the new indexes
+     */
+    public Factorization<U, I> remap(FastUserIndex<U> uIndex, FastItemIndex<I> iIndex, DoubleFunction initFunction) {
+        DenseFactorMatrix p = remapFactorMatrix(userMatrix, uIndex.numUsers(), uidx -> user2uidx(uIndex.uidx2user(uidx)), initFunction);
+        DenseFactorMatrix q = remapFactorMatrix(itemMatrix, iIndex.numItems(), iidx -> item2iidx(iIndex.iidx2item(iidx)), initFunction);
+
+        return new Factorization<>(uIndex, iIndex, p, q, K);
+    }
+
+    private static DenseFactorMatrix remapFactorMatrix(FactorMatrix matrix, int rows, IntUnaryOperator oldRow, DoubleFunction initFunction) {
+        DenseFactorMatrix remapped = new DenseFactorMatrix(rows, matrix.columns());
+        double[] row = new double[matrix.columns()];
+        for (int idx = 0; idx < rows; idx++) {
+            int oldIdx = oldRow.applyAsInt(idx);
+            if (oldIdx >= 0) {
+                matrix.getRow(oldIdx, row);
+            } else {
+                for (int k = 0; k < row.length; k++) {
+                    row[k] = initFunction.apply(0.0);
+                }
+            }
+            remapped.setRow(idx, row);
+        }
+
+        return remapped;
+    }
+
+    private static void saveFactorMatrix(OutputStream stream, FactorMatrix matrix) throws IOException {
         BufferedWriter out = new BufferedWriter(new OutputStreamWriter(stream));
-        double[][] m = matrix.toArray();
-        for (double[] pu : m) {
+        double[] pu = new double[matrix.columns()];
+        for (int row = 0; row < matrix.rows(); row++) {
+            matrix.getRow(row, pu);
             for (int j = 0; j < pu.length - 1; j++) {
                 out.write(Double.toString(pu[j]));
                 out.write('\t');
@@ -210,18 +303,20 @@ public class Factorization<U, I> implements FastItemIndex<I>, FastUserIndex<U> {
         out.flush();
     }
 
-    private static DenseDoubleMatrix2D loadDenseDoubleMatrix2D(InputStream stream, int rows, int columns) throws IOException {
-        double[][] m = new double[rows][columns];
+    private static DenseFactorMatrix loadFactorMatrix(InputStream stream, int rows, int columns) throws IOException {
+        DenseFactorMatrix m = new DenseFactorMatrix(rows, columns);
+        double[] mi = new double[columns];
 
         BufferedReader in = new BufferedReader(new InputStreamReader(stream));
-        for (double[] mi : m) {
+        for (int row = 0; row < rows; row++) {
             CharSequence[] tokens = split(in.readLine(), '\t', mi.length);
             for (int j = 0; j < mi.length; j++) {
                 mi[j] = dp.parse(tokens[j]);
             }
+            m.setRow(row, mi);
         }
 
-        return new DenseDoubleMatrix2D(m);
+        return m;
     }
 
     /**
@@ -241,11 +336,11 @@ public class Factorization<U, I> implements FastItemIndex<I>, FastUserIndex<U> {
             zip.closeEntry();
 
             zip.putNextEntry(new ZipEntry("userMatrix"));
-            saveDenseDoubleMatrix2D(zip, userMatrix);
+            saveFactorMatrix(zip, userMatrix);
             zip.closeEntry();
 
             zip.putNextEntry(new ZipEntry("itemMatrix"));
-            saveDenseDoubleMatrix2D(zip, itemMatrix);
+            saveFactorMatrix(zip, itemMatrix);
             zip.closeEntry();
         }
     }
@@ -265,8 +360,8 @@ public class Factorization<U, I> implements FastItemIndex<I>, FastUserIndex<U> {
      */
     public static <U, I> Factorization<U, I> load(InputStream in, FastUserIndex<U> uIndex, FastItemIndex<I> iIndex, Parser<U> uParser, Parser<I> iParser) throws IOException {
         int K;
-        DenseDoubleMatrix2D userMatrix;
-        DenseDoubleMatrix2D itemMatrix;
+        DenseFactorMatrix userMatrix;
+        DenseFactorMatrix itemMatrix;
         try (ZipInputStream zip = new ZipInputStream(in)) {
             zip.getNextEntry();
             BufferedReader reader = new BufferedReader(new InputStreamReader(zip));
@@ -276,14 +371,174 @@ public class Factorization<U, I> implements FastItemIndex<I>, FastUserIndex<U> {
             zip.closeEntry();
 
             zip.getNextEntry();
-            userMatrix = loadDenseDoubleMatrix2D(zip, numUsers, K);
+            userMatrix = loadFactorMatrix(zip, numUsers, K);
             zip.closeEntry();
             
             zip.getNextEntry();
-            itemMatrix = loadDenseDoubleMatrix2D(zip, numItems, K);
+            itemMatrix = loadFactorMatrix(zip, numItems, K);
             zip.closeEntry();
         }
 
         return new Factorization<>(uIndex, iIndex, userMatrix, itemMatrix, K);
     }
+
+    /**
+     * Saves this matrix factorization in binary format with double precision
+     * values. See {@link #saveBinary(java.nio.file.Path, boolean)}.
+     *
+     * @param path output file
+     * @throws IOException when IO error
+     */
+    public void saveBinary(Path path) throws IOException {
+        saveBinary(path, false);
+    }
+
+    /**
+     * Saves this matrix factorization in binary format. The file starts with
+     * a 64-byte little-endian header (magic number, version, bytes per value,
+     * K, number of users and number of items) followed by the rows of the
+     * user and item matrices as raw little-endian values. Files in this format
+     * can be read with {@link #loadBinary} or memory-mapped with
+     * {@link #mapBinary}.
+     *
+     * @param path output file
+     * @param singlePrecision true to store values as floats, false as doubles
+     * @throws IOException when IO error
+     */
+    public void saveBinary(Path path, boolean singlePrecision) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(BINARY_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(BINARY_MAGIC);
+            header.putInt(BINARY_VERSION);
+            header.putInt(singlePrecision ? Float.BYTES : Double.BYTES);
+            header.putInt(K);
+            header.putLong(numUsers());
+            header.putLong(numItems());
+            header.clear();
+            writeFully(channel, header);
+
+            int rowBytes = K * (singlePrecision ? Float.BYTES : Double.BYTES);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(BINARY_BUFFER_BYTES, rowBytes)).order(ByteOrder.LITTLE_ENDIAN);
+            writeBinaryFactorMatrix(channel, buffer, userMatrix, singlePrecision);
+            writeBinaryFactorMatrix(channel, buffer, itemMatrix, singlePrecision);
+        }
+    }
+
+    private static void writeBinaryFactorMatrix(FileChannel channel, ByteBuffer buffer, FactorMatrix matrix, boolean singlePrecision) throws IOException {
+        int rowBytes = matrix.columns() * (singlePrecision ? Float.BYTES : Double.BYTES);
+        double[] x = new double[matrix.columns()];
+        buffer.clear();
+        for (int row = 0; row < matrix.rows(); row++) {
+            if (buffer.remaining() < rowBytes) {
+                buffer.flip();
+                writeFully(channel, buffer);
+                buffer.clear();
+            }
+            matrix.getRow(row, x);
+            for (double v : x) {
+                if (singlePrecision) {
+                    buffer.putFloat((float) v);
+                } else {
+                    buffer.putDouble(v);
+                }
+            }
+        }
+        buffer.flip();
+        writeFully(channel, buffer);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Loads a matrix factorization in binary format into memory. The
+     * resulting factorization can be further trained by a factorizer.
+     *
+     * @param <U> type of the users
+     * @param <I> type of the items
+     * @param path input file
+     * @param uIndex fast user index
+     * @param iIndex fast item index
+     * @return a factorization
+     * @throws IOException when IO error or the file is not in the expected
+     * format
+     */
+    public static <U, I> Factorization<U, I> loadBinary(Path path, FastUserIndex<U> uIndex, FastItemIndex<I> iIndex) throws IOException {
+        Factorization<U, I> mapped = mapBinary(path, uIndex, iIndex);
+        DenseFactorMatrix userMatrix = copyFactorMatrix(mapped.userMatrix);
+        DenseFactorMatrix itemMatrix = copyFactorMatrix(mapped.itemMatrix);
+
+        return new Factorization<>(uIndex, iIndex, userMatrix, itemMatrix, mapped.K);
+    }
+
+    private static DenseFactorMatrix copyFactorMatrix(FactorMatrix matrix) {
+        DenseFactorMatrix m = new DenseFactorMatrix(matrix.rows(), matrix.columns());
+        double[] x = new double[matrix.columns()];
+        for (int row = 0; row < matrix.rows(); row++) {
+            matrix.getRow(row, x);
+            m.setRow(row, x);
+        }
+        return m;
+    }
+
+    /**
+     * Memory-maps a matrix factorization in binary format. The factor
+     * matrices are read-only and their pages are loaded lazily by the
+     * operating system, so the factorization is available immediately and
+     * shared among processes that map the same file.
+     *
+     * @param <U> type of the users
+     * @param <I> type of the items
+     * @param path input file
+     * @param uIndex fast user index
+     * @param iIndex fast item index
+     * @return a read-only factorization
+     * @throws IOException when IO error or the file is not in the expected
+     * format
+     */
+    public static <U, I> Factorization<U, I> mapBinary(Path path, FastUserIndex<U> uIndex, FastItemIndex<I> iIndex) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            ByteBuffer header = ByteBuffer.allocate(BINARY_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("truncated header in " + path);
+                }
+            }
+            header.flip();
+
+            int magic = header.getInt();
+            int version = header.getInt();
+            int valueBytes = header.getInt();
+            int K = header.getInt();
+            long numUsers = header.getLong();
+            long numItems = header.getLong();
+
+            if (magic != BINARY_MAGIC || version != BINARY_VERSION) {
+                throw new IOException("not a binary factorization file: " + path);
+            }
+            if (valueBytes != Float.BYTES && valueBytes != Double.BYTES) {
+                throw new IOException("unsupported value size: " + valueBytes);
+            }
+            if (K <= 0) {
+                throw new IOException("invalid number of factors: " + K);
+            }
+            if (numUsers != uIndex.numUsers() || numItems != iIndex.numItems()) {
+                throw new IOException("factorization of " + numUsers + " users and " + numItems + " items does not match the indexes");
+            }
+            long userBytes = numUsers * K * valueBytes;
+            long itemBytes = numItems * K * valueBytes;
+            if (channel.size() < BINARY_HEADER_BYTES + userBytes + itemBytes) {
+                throw new IOException("truncated file: " + path);
+            }
+
+            boolean singlePrecision = valueBytes == Float.BYTES;
+            FactorMatrix userMatrix = new MappedFactorMatrix(channel, BINARY_HEADER_BYTES, (int) numUsers, K, singlePrecision);
+            FactorMatrix itemMatrix = new MappedFactorMatrix(channel, BINARY_HEADER_BYTES + userBytes, (int) numItems, K, singlePrecision);
+
+            return new Factorization<>(uIndex, iIndex, userMatrix, itemMatrix, K);
+        }
+    }
 }
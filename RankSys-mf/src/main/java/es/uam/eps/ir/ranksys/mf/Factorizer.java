@@ -8,7 +8,12 @@
  */
 package es.uam.eps.ir.ranksys.mf;
 
+import cern.colt.function.DoubleFunction;
 import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.ranksys.mf.monitor.Iteration;
+import org.ranksys.mf.monitor.IterationListener;
 
 /**
  * Factorizer. Abstract class for matrix factorization algorithms.
@@ -20,6 +25,51 @@ import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
  */
 public abstract class Factorizer<U, I> {
 
+    private final List<IterationListener<U, I>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Adds a listener that is notified after each iteration and can stop the
+     * factorization, e.g., when it has converged.
+     *
+     * @param listener iteration listener
+     */
+    public void addIterationListener(IterationListener<U, I> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes an iteration listener.
+     *
+     * @param listener iteration listener
+     */
+    public void removeIterationListener(IterationListener<U, I> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Notifies the iteration listeners. All listeners are notified even if
+     * one of them requests to stop.
+     *
+     * @param iteration statistics and state of the iteration
+     * @return true if the factorization should continue, false otherwise
+     */
+    protected boolean notifyIteration(Iteration<U, I> iteration) {
+        boolean proceed = true;
+        for (IterationListener<U, I> listener : listeners) {
+            proceed &= listener.onIteration(iteration);
+        }
+        return proceed;
+    }
+
+    /**
+     * Checks whether there are iteration listeners.
+     *
+     * @return true if some listener was added, false otherwise
+     */
+    protected boolean hasIterationListeners() {
+        return !listeners.isEmpty();
+    }
+
     /**
      * Global loss of the factorization.
      *
@@ -46,4 +96,21 @@ public abstract class Factorizer<U, I> {
      * @param data preference data
      */
     public abstract void factorize(Factorization<U, I> factorization, FastPreferenceData<U, I> data);
+
+    /**
+     * Calculates a factorization starting from a previous one, which may
+     * have different user and item indexes, see
+     * {@link Factorization#remap(es.uam.eps.ir.ranksys.fast.index.FastUserIndex, es.uam.eps.ir.ranksys.fast.index.FastItemIndex, DoubleFunction)}.
+     *
+     * @param previous previous matrix factorization
+     * @param data preference data
+     * @param initFunction function to initialize the cells of new users and
+     * items
+     * @return a matrix factorization
+     */
+    public Factorization<U, I> warmStart(Factorization<U, I> previous, FastPreferenceData<U, I> data, DoubleFunction initFunction) {
+        Factorization<U, I> factorization = previous.remap(data, data, initFunction);
+        factorize(factorization, data);
+        return factorization;
+    }
 }
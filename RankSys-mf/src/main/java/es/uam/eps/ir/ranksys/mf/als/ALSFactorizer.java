@@ -9,16 +9,22 @@
 package es.uam.eps.ir.ranksys.mf.als;
 
 import cern.colt.function.DoubleFunction;
-import cern.colt.matrix.impl.DenseDoubleMatrix2D;
 import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
 import es.uam.eps.ir.ranksys.mf.Factorization;
 import es.uam.eps.ir.ranksys.mf.Factorizer;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import static java.lang.Math.sqrt;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleUnaryOperator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.IntStream;
+import org.ranksys.mf.matrix.DenseFactorMatrix;
+import org.ranksys.mf.matrix.FactorMatrix;
+import org.ranksys.mf.matrix.Kernels;
+import org.ranksys.mf.monitor.Iteration;
 
 /**
  * Generic alternating least-squares factorizer.
@@ -32,6 +38,8 @@ public abstract class ALSFactorizer<U, I> extends Factorizer<U, I> {
 
     private static final Logger LOG = Logger.getLogger(ALSFactorizer.class.getName());
 
+    private static final int WARM_START_ITER = 2;
+
     private final int numIter;
 
     /**
@@ -46,8 +54,8 @@ public abstract class ALSFactorizer<U, I> extends Factorizer<U, I> {
     @Override
     public double error(Factorization<U, I> factorization, FastPreferenceData<U, I> data) {
 
-        DenseDoubleMatrix2D p = factorization.getUserMatrix();
-        DenseDoubleMatrix2D q = factorization.getItemMatrix();
+        FactorMatrix p = factorization.getUserFactors();
+        FactorMatrix q = factorization.getItemFactors();
 
         return error(p, q, data);
     }
@@ -60,21 +68,57 @@ public abstract class ALSFactorizer<U, I> extends Factorizer<U, I> {
         return factorization;
     }
 
+    /**
+     * Calculates a factorization starting from a previous one, which may
+     * have different user and item indexes. New users and items start with
+     * zero vectors: since each iteration solves the item matrix first, new
+     * users do not disturb it and new items are solved from the previous user
+     * vectors. It runs two iterations, which usually suffice.
+     *
+     * @param previous previous matrix factorization
+     * @param data preference data
+     * @return a matrix factorization
+     */
+    public Factorization<U, I> warmStart(Factorization<U, I> previous, FastPreferenceData<U, I> data) {
+        return warmStart(previous, data, WARM_START_ITER);
+    }
+
+    /**
+     * Calculates a factorization starting from a previous one with a given
+     * number of iterations, see
+     * {@link #warmStart(Factorization, FastPreferenceData)}.
+     *
+     * @param previous previous matrix factorization
+     * @param data preference data
+     * @param numIter number of least-squares calculations
+     * @return a matrix factorization
+     */
+    public Factorization<U, I> warmStart(Factorization<U, I> previous, FastPreferenceData<U, I> data, int numIter) {
+        Factorization<U, I> factorization = previous.remap(data, data, x -> 0.0);
+        factorize(factorization, data, numIter);
+        return factorization;
+    }
+
     @Override
     public void factorize(Factorization<U, I> factorization, FastPreferenceData<U, I> data) {
+        factorize(factorization, data, numIter);
+    }
+
+    private void factorize(Factorization<U, I> factorization, FastPreferenceData<U, I> data, int numIter) {
 
-        DenseDoubleMatrix2D p = factorization.getUserMatrix();
-        DenseDoubleMatrix2D q = factorization.getItemMatrix();
+        DenseFactorMatrix p = factorization.getUserFactors().asDense();
+        DenseFactorMatrix q = factorization.getItemFactors().asDense();
 
         IntSet uidxs = new IntOpenHashSet(data.getUidxWithPreferences().toArray());
-        IntStream.range(0, p.rows()).filter(uidx -> !uidxs.contains(uidx)).forEach(uidx -> p.viewRow(uidx).assign(0.0));
+        IntStream.range(0, p.rows()).filter(uidx -> !uidxs.contains(uidx)).forEach(uidx -> p.fillRow(uidx, 0.0));
         IntSet iidxs = new IntOpenHashSet(data.getIidxWithPreferences().toArray());
-        IntStream.range(0, q.rows()).filter(iidx -> !iidxs.contains(iidx)).forEach(iidx -> q.viewRow(iidx).assign(0.0));
+        IntStream.range(0, q.rows()).filter(iidx -> !iidxs.contains(iidx)).forEach(iidx -> q.fillRow(iidx, 0.0));
 
         for (int t = 1; t <= numIter; t++) {
             long time0 = System.nanoTime();
 
             set_minQ(q, p, data);
+            long timeQ = System.nanoTime() - time0;
             set_minP(p, q, data);
 
             int iter = t;
@@ -82,6 +126,15 @@ public abstract class ALSFactorizer<U, I> extends Factorizer<U, I> {
 
             LOG.log(Level.INFO, String.format("iteration n = %3d t = %.2fs", iter, time1 / 1_000_000_000.0));
             LOG.log(Level.FINE, () -> String.format("iteration n = %3d e = %.6f", iter, error(factorization, data)));
+
+            if (hasIterationListeners()) {
+                Map<String, Long> stepTimes = new LinkedHashMap<>();
+                stepTimes.put("Q", timeQ);
+                stepTimes.put("P", time1 - timeQ);
+                if (!notifyIteration(new Iteration<>(iter, stepTimes, factorization, () -> error(factorization, data)))) {
+                    break;
+                }
+            }
         }
     }
 
@@ -93,7 +146,49 @@ public abstract class ALSFactorizer<U, I> extends Factorizer<U, I> {
      * @param data preference data
      * @return squared loss
      */
-    protected abstract double error(DenseDoubleMatrix2D p, DenseDoubleMatrix2D q, FastPreferenceData<U, I> data);
+    protected abstract double error(FactorMatrix p, FactorMatrix q, FastPreferenceData<U, I> data);
+
+    /**
+     * Weighted squared loss of implicit feedback factorizations, averaged
+     * over users and items:
+     * sum_u sum_i c_ui (r_ui - s_ui)^2, where r_ui = 0 and c_ui = c(0) for
+     * unobserved pairs. The sum over all items is decomposed into the sum over
+     * observed items plus c(0) p_u^t (Q^t Q) p_u, which costs O(K^2) per user
+     * instead of O(|I| K).
+     *
+     * @param <U> type of the users
+     * @param <I> type of the items
+     * @param p user matrix
+     * @param q item matrix
+     * @param confidence confidence function
+     * @param data preference data
+     * @return weighted squared loss
+     */
+    protected static <U, I> double implicitError(FactorMatrix p, FactorMatrix q, DoubleUnaryOperator confidence, FastPreferenceData<U, I> data) {
+        int K = p.columns();
+        double c0 = confidence.applyAsDouble(0);
+        double[] gram = q.gram();
+
+        double error = data.getUidxWithPreferences().parallel().mapToDouble(uidx -> {
+            double[] pu = new double[K];
+            p.getRow(uidx, pu);
+            double[] gpu = new double[K];
+            Kernels.gemv(gram, pu, gpu, K);
+
+            double err1 = data.getUidxPreferences(uidx).mapToDouble(iv -> {
+                double rui = iv.v;
+                double sui = q.dot(iv.idx, pu);
+                double cui = confidence.applyAsDouble(rui);
+                return cui * (rui - sui) * (rui - sui) - c0 * sui * sui;
+            }).sum();
+
+            double err2 = c0 * Kernels.dot(pu, 0, gpu, 0, K);
+
+            return (err1 + err2) / data.numItems();
+        }).sum() / data.numUsers();
+
+        return error;
+    }
 
     /**
      * User matrix least-squares step.
@@ -102,7 +197,7 @@ public abstract class ALSFactorizer<U, I> extends Factorizer<U, I> {
      * @param q item matrix
      * @param data preference data
      */
-    protected abstract void set_minP(DenseDoubleMatrix2D p, DenseDoubleMatrix2D q, FastPreferenceData<U, I> data);
+    protected abstract void set_minP(DenseFactorMatrix p, DenseFactorMatrix q, FastPreferenceData<U, I> data);
 
     /**
      * Item matrix least-squares step.
@@ -111,5 +206,5 @@ public abstract class ALSFactorizer<U, I> extends Factorizer<U, I> {
      * @param p user matrix
      * @param data preference data
      */
-    protected abstract void set_minQ(DenseDoubleMatrix2D q, DenseDoubleMatrix2D p, FastPreferenceData<U, I> data);
+    protected abstract void set_minQ(DenseFactorMatrix q, DenseFactorMatrix p, FastPreferenceData<U, I> data);
 }
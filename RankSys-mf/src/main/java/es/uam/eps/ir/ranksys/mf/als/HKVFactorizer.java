@@ -8,15 +8,13 @@
  */
 package es.uam.eps.ir.ranksys.mf.als;
 
-import cern.colt.matrix.DoubleMatrix1D;
-import cern.colt.matrix.DoubleMatrix2D;
-import cern.colt.matrix.impl.DenseDoubleMatrix1D;
-import cern.colt.matrix.impl.DenseDoubleMatrix2D;
-import cern.colt.matrix.linalg.Algebra;
-import cern.colt.matrix.linalg.LUDecompositionQuick;
 import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
 import es.uam.eps.ir.ranksys.fast.preference.TransposedPreferenceData;
+import java.util.Arrays;
 import java.util.function.DoubleUnaryOperator;
+import org.ranksys.mf.matrix.DenseFactorMatrix;
+import org.ranksys.mf.matrix.FactorMatrix;
+import org.ranksys.mf.matrix.Kernels;
 
 /**
  * Implicit matrix factorization of Hu, Koren and Volinsky.
@@ -24,6 +22,13 @@ import java.util.function.DoubleUnaryOperator;
  * Y. Hu, Y. Koren, C. Volinsky. Collaborative filtering for implicit feedback
  * datasets. ICDM 2008.
  * 
+ * Optionally, the least-squares problems can be solved approximately by a few
+ * iterations of the conjugate gradient method, warm-started from the current
+ * factors, as proposed in:
+ * 
+ * G. Takács, I. Pilászy and D. Tikk. Applications of the conjugate gradient
+ * method for implicit feedback collaborative filtering. RecSys 2011.
+ * 
  * @author Saúl Vargas (saul.vargas@uam.es)
  * 
  * @param <U> type of the users
@@ -31,10 +36,10 @@ import java.util.function.DoubleUnaryOperator;
  */
 public class HKVFactorizer<U, I> extends ALSFactorizer<U, I> {
 
-    private static final Algebra ALG = new Algebra();
     private final double lambdaP;
     private final double lambdaQ;
     private final DoubleUnaryOperator confidence;
+    private final int cgIter;
 
     /**
      * Constructor. Same regularization factor for user and item matrices.
@@ -56,82 +61,175 @@ public class HKVFactorizer<U, I> extends ALSFactorizer<U, I> {
      * @param numIter number of iterations
      */
     public HKVFactorizer(double lambdaP, double lambdaQ, DoubleUnaryOperator confidence, int numIter) {
+        this(lambdaP, lambdaQ, confidence, numIter, 0);
+    }
+
+    /**
+     * Constructor that solves the least-squares problems with the conjugate
+     * gradient method. Each user (item) costs O(n K cgIter) instead of
+     * O(n K^2 + K^3), where n is the size of its profile.
+     *
+     * @param lambdaP regularization factor for user matrix
+     * @param lambdaQ regularization factor for item matrix
+     * @param confidence confidence function
+     * @param numIter number of iterations
+     * @param cgIter number of conjugate gradient iterations per
+     * least-squares problem, 0 for exact solutions
+     */
+    public HKVFactorizer(double lambdaP, double lambdaQ, DoubleUnaryOperator confidence, int numIter, int cgIter) {
         super(numIter);
         this.lambdaP = lambdaP;
         this.lambdaQ = lambdaQ;
         this.confidence = confidence;
+        this.cgIter = cgIter;
     }
 
     @Override
-    public double error(DenseDoubleMatrix2D p, DenseDoubleMatrix2D q, FastPreferenceData<U, I> data) {
+    public double error(FactorMatrix p, FactorMatrix q, FastPreferenceData<U, I> data) {
         // TODO: add regularization
-        
-        double error = data.getUidxWithPreferences().parallel().mapToDouble(uidx -> {
-            DoubleMatrix1D pu = p.viewRow(uidx);
-            DoubleMatrix1D su = q.zMult(pu, null);
-            
-            double err1 = data.getUidxPreferences(uidx).mapToDouble(iv -> {
-                double rui = iv.v;
-                double sui = su.getQuick(iv.idx);
-                double cui = confidence.applyAsDouble(rui);
-                return cui * (rui - sui) * (rui - sui) - confidence.applyAsDouble(0) * sui * sui;
-            }).sum();
-            
-            double err2 = confidence.applyAsDouble(0) * su.assign(x -> x * x).zSum();
-            
-            return (err1 + err2) / data.numItems();
-        }).sum() / data.numUsers();
-
-        return error;
+        return implicitError(p, q, confidence, data);
     }
 
     @Override
-    public void set_minP(final DenseDoubleMatrix2D p, final DenseDoubleMatrix2D q, FastPreferenceData<U, I> data) {
-        set_min(p, q, confidence, lambdaP, data);
+    public void set_minP(final DenseFactorMatrix p, final DenseFactorMatrix q, FastPreferenceData<U, I> data) {
+        if (cgIter > 0) {
+            set_minCG(p, q, confidence, lambdaP, cgIter, data);
+        } else {
+            set_min(p, q, confidence, lambdaP, data);
+        }
     }
 
     @Override
-    public void set_minQ(final DenseDoubleMatrix2D q, final DenseDoubleMatrix2D p, FastPreferenceData<U, I> data) {
-        set_min(q, p, confidence, lambdaQ, new TransposedPreferenceData<>(data));
+    public void set_minQ(final DenseFactorMatrix q, final DenseFactorMatrix p, FastPreferenceData<U, I> data) {
+        if (cgIter > 0) {
+            set_minCG(q, p, confidence, lambdaQ, cgIter, new TransposedPreferenceData<>(data));
+        } else {
+            set_min(q, p, confidence, lambdaQ, new TransposedPreferenceData<>(data));
+        }
     }
 
-    private static <U, I, O> void set_min(final DenseDoubleMatrix2D p, final DenseDoubleMatrix2D q, DoubleUnaryOperator confidence, double lambda, FastPreferenceData<U, I> data) {
+    private static <U, I> void set_min(final DenseFactorMatrix p, final DenseFactorMatrix q, DoubleUnaryOperator confidence, double lambda, FastPreferenceData<U, I> data) {
         final int K = p.columns();
 
-        DenseDoubleMatrix2D A1P = new DenseDoubleMatrix2D(K, K);
-        q.zMult(q, A1P, 1.0, 0.0, true, false);
+        double[] A1P = q.gram();
         for (int k = 0; k < K; k++) {
-            A1P.setQuick(k, k, lambda + A1P.getQuick(k, k));
+            A1P[k * K + k] += lambda;
         }
 
-        DenseDoubleMatrix2D[] A2P = new DenseDoubleMatrix2D[q.rows()];
-        data.getIidxWithPreferences().parallel().forEach(iidx -> {
-            A2P[iidx] = new DenseDoubleMatrix2D(K, K);
-            DoubleMatrix1D qi = q.viewRow(iidx);
-            ALG.multOuter(qi, qi, A2P[iidx]);
-        });
+        double[] qd = q.getData();
+        ThreadLocal<double[][]> buffers = ThreadLocal.withInitial(() -> new double[][]{new double[K * K], new double[K * K], new double[K]});
 
         data.getUidxWithPreferences().parallel().forEach(uidx -> {
-            DoubleMatrix2D A = new DenseDoubleMatrix2D(K, K);
-            DoubleMatrix1D b = new DenseDoubleMatrix1D(K);
-            A.assign(A1P);
-            b.assign(0.0);
+            double[][] buffer = buffers.get();
+            double[] A = buffer[0];
+            double[] work = buffer[1];
+            double[] b = buffer[2];
+            System.arraycopy(A1P, 0, A, 0, K * K);
+            Arrays.fill(b, 0.0);
 
             data.getUidxPreferences(uidx).forEach(iv -> {
-                int iidx = iv.idx;
+                int qi = q.offset(iv.idx);
                 double rui = iv.v;
                 double cui = confidence.applyAsDouble(rui);
 
-                DoubleMatrix1D qi = q.viewRow(iidx);
+                Kernels.syr(cui - 1.0, qd, qi, A, K);
+                Kernels.axpy(rui * cui, qd, qi, b, 0, K);
+            });
+            Kernels.symmetrize(A, K);
+            Kernels.solveSymmetric(A, b, work, K);
+            p.setRow(uidx, b);
+        });
+    }
+
+    private static <U, I> void set_minCG(final DenseFactorMatrix p, final DenseFactorMatrix q, DoubleUnaryOperator confidence, double lambda, int cgIter, FastPreferenceData<U, I> data) {
+        final int K = p.columns();
+
+        double[] A1P = q.gram();
+        for (int k = 0; k < K; k++) {
+            A1P[k * K + k] += lambda;
+        }
+
+        double[] pd = p.getData();
+        double[] qd = q.getData();
+        ThreadLocal<CGBuffer> buffers = ThreadLocal.withInitial(() -> new CGBuffer(K));
 
-                A.assign(A2P[iidx], (x, y) -> x + y * (cui - 1.0));
-                b.assign(qi, (x, y) -> x + y * rui * cui);
+        data.getUidxWithPreferences().parallel().forEach(uidx -> {
+            CGBuffer buffer = buffers.get();
+            buffer.ensureCapacity(data.numItems(uidx));
+            int[] offsets = buffer.offsets;
+            double[] cm1 = buffer.cm1;
+            double[] r = buffer.r;
+            double[] d = buffer.d;
+            double[] Ad = buffer.Ad;
+
+            // r = b - A x, with b = sum_i c_ui r_ui q_i
+            int[] n = {0};
+            Arrays.fill(r, 0.0);
+            data.getUidxPreferences(uidx).forEach(iv -> {
+                int qi = q.offset(iv.idx);
+                double cui = confidence.applyAsDouble(iv.v);
+                offsets[n[0]] = qi;
+                cm1[n[0]] = cui - 1.0;
+                n[0]++;
+                Kernels.axpy(iv.v * cui, qd, qi, r, 0, K);
             });
-            LUDecompositionQuick lu = new LUDecompositionQuick(0);
-            lu.decompose(A);
-            lu.solve(b);
-            p.viewRow(uidx).assign(b);
+            int x = p.offset(uidx);
+            times(A1P, offsets, cm1, n[0], qd, pd, x, Ad, K);
+            Kernels.axpy(-1.0, Ad, 0, r, 0, K);
+
+            System.arraycopy(r, 0, d, 0, K);
+            double rr = Kernels.dot(r, 0, r, 0, K);
+            for (int it = 0; it < cgIter && rr > 0.0; it++) {
+                times(A1P, offsets, cm1, n[0], qd, d, 0, Ad, K);
+                double alpha = rr / Kernels.dot(d, 0, Ad, 0, K);
+                Kernels.axpy(alpha, d, 0, pd, x, K);
+                Kernels.axpy(-alpha, Ad, 0, r, 0, K);
+                double rr1 = Kernels.dot(r, 0, r, 0, K);
+                double beta = rr1 / rr;
+                for (int k = 0; k < K; k++) {
+                    d[k] = r[k] + beta * d[k];
+                }
+                rr = rr1;
+            }
         });
     }
 
+    /**
+     * Implicit product y = A v, with A = Q^t Q + lambda I + sum_i (c_ui - 1)
+     * q_i q_i^t.
+     */
+    private static void times(double[] A1P, int[] offsets, double[] cm1, int n, double[] qd, double[] v, int vo, double[] y, int K) {
+        for (int k = 0; k < K; k++) {
+            y[k] = Kernels.dot(A1P, k * K, v, vo, K);
+        }
+        for (int j = 0; j < n; j++) {
+            double a = cm1[j] * Kernels.dot(qd, offsets[j], v, vo, K);
+            Kernels.axpy(a, qd, offsets[j], y, 0, K);
+        }
+    }
+
+    private static class CGBuffer {
+
+        private int[] offsets;
+        private double[] cm1;
+        private final double[] r;
+        private final double[] d;
+        private final double[] Ad;
+
+        public CGBuffer(int K) {
+            this.offsets = new int[0];
+            this.cm1 = new double[0];
+            this.r = new double[K];
+            this.d = new double[K];
+            this.Ad = new double[K];
+        }
+
+        public void ensureCapacity(int n) {
+            if (offsets.length < n) {
+                int m = Math.max(n, 2 * offsets.length);
+                offsets = new int[m];
+                cm1 = new double[m];
+            }
+        }
+    }
 }
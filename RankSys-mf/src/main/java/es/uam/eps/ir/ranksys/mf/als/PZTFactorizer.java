@@ -8,16 +8,12 @@
  */
 package es.uam.eps.ir.ranksys.mf.als;
 
-import cern.colt.matrix.DoubleMatrix1D;
-import cern.colt.matrix.DoubleMatrix2D;
-import cern.colt.matrix.impl.DenseDoubleMatrix2D;
-import cern.colt.matrix.linalg.EigenvalueDecomposition;
-import es.uam.eps.ir.ranksys.fast.preference.IdxPref;
 import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
 import es.uam.eps.ir.ranksys.fast.preference.TransposedPreferenceData;
-import static java.lang.Math.sqrt;
 import java.util.function.DoubleUnaryOperator;
-import java.util.stream.Stream;
+import org.ranksys.mf.matrix.DenseFactorMatrix;
+import org.ranksys.mf.matrix.FactorMatrix;
+import org.ranksys.mf.matrix.Kernels;
 
 /**
  * Fast ALS-based factorization of Pilászy, Zibriczky and Tikk.
@@ -66,119 +62,159 @@ public class PZTFactorizer<U, I> extends ALSFactorizer<U, I> {
     }
 
     @Override
-    public double error(DenseDoubleMatrix2D p, DenseDoubleMatrix2D q, FastPreferenceData<U, I> data) {
-        // TODO: add regularization, unify with HKVFactorizer's error
-        
-        double error = data.getUidxWithPreferences().parallel().mapToDouble(uidx -> {
-            DoubleMatrix1D pu = p.viewRow(uidx);
-            DoubleMatrix1D su = q.zMult(pu, null);
-            
-            double err1 = data.getUidxPreferences(uidx).mapToDouble(iv -> {
-                double rui = iv.v;
-                double sui = su.getQuick(iv.idx);
-                double cui = confidence.applyAsDouble(rui);
-                return cui * (rui - sui) * (rui - sui) - confidence.applyAsDouble(0) * sui * sui;
-            }).sum();
-            
-            double err2 = confidence.applyAsDouble(0) * su.assign(x -> x * x).zSum();
-            
-            return (err1 + err2) / data.numItems();
-        }).sum() / data.numUsers();
-
-        return error;
+    public double error(FactorMatrix p, FactorMatrix q, FastPreferenceData<U, I> data) {
+        // TODO: add regularization
+        return implicitError(p, q, confidence, data);
     }
 
     @Override
-    public void set_minP(final DenseDoubleMatrix2D p, final DenseDoubleMatrix2D q, FastPreferenceData<U, I> data) {
+    public void set_minP(final DenseFactorMatrix p, final DenseFactorMatrix q, FastPreferenceData<U, I> data) {
         set_min(p, q, confidence, lambdaP, data);
     }
 
     @Override
-    public void set_minQ(final DenseDoubleMatrix2D q, final DenseDoubleMatrix2D p, FastPreferenceData<U, I> data) {
+    public void set_minQ(final DenseFactorMatrix q, final DenseFactorMatrix p, FastPreferenceData<U, I> data) {
         set_min(q, p, confidence, lambdaQ, new TransposedPreferenceData<>(data));
     }
 
-    private static <U, I> void set_min(final DenseDoubleMatrix2D p, final DenseDoubleMatrix2D q, DoubleUnaryOperator confidence, double lambda, FastPreferenceData<U, I> data) {
-        DoubleMatrix2D gt = getGt(p, q, lambda);
+    private static <U, I> void set_min(final DenseFactorMatrix p, final DenseFactorMatrix q, DoubleUnaryOperator confidence, double lambda, FastPreferenceData<U, I> data) {
+        final int K = p.columns();
+        double[] gt = getGt(q, lambda);
 
+        ThreadLocal<RR1Buffer> buffers = ThreadLocal.withInitial(() -> new RR1Buffer(K));
         data.getUidxWithPreferences().parallel().forEach(uidx -> {
-            prepareRR1(1, p.viewRow(uidx), gt, q, data.numItems(uidx), data.getUidxPreferences(uidx), confidence, lambda);
+            RR1Buffer buffer = buffers.get();
+            prepareRR1(buffer, gt, q, data, uidx, confidence);
+            doRR1(1, p, uidx, buffer, lambda);
         });
     }
 
-    private static DoubleMatrix2D getGt(final DenseDoubleMatrix2D p, final DenseDoubleMatrix2D q, double lambda) {
-        final int K = p.columns();
+    /**
+     * Returns a K×K matrix whose columns x_k satisfy sum_k x_k x_k^t = Q^t Q +
+     * lambda I, namely its Cholesky factor.
+     */
+    private static double[] getGt(final DenseFactorMatrix q, double lambda) {
+        final int K = q.columns();
 
-        DenseDoubleMatrix2D A1 = new DenseDoubleMatrix2D(K, K);
-        q.zMult(q, A1, 1.0, 0.0, true, false);
+        double[] A1 = q.gram();
+        double trace = 0.0;
         for (int k = 0; k < K; k++) {
-            A1.setQuick(k, k, lambda + A1.getQuick(k, k));
+            A1[k * K + k] += lambda;
+            trace += A1[k * K + k];
         }
 
-        EigenvalueDecomposition eig = new EigenvalueDecomposition(A1);
-        DoubleMatrix1D d = eig.getRealEigenvalues();
-        DoubleMatrix2D gt = eig.getV();
-        for (int k = 0; k < K; k++) {
-            double a = sqrt(d.get(k));
-            gt.viewColumn(k).assign(x -> a * x);
+        double[] gt = new double[K * K];
+        double jitter = 0.0;
+        do {
+            System.arraycopy(A1, 0, gt, 0, K * K);
+            for (int k = 0; k < K; k++) {
+                gt[k * K + k] += jitter;
+            }
+            jitter = jitter == 0.0 ? 1e-12 * Math.max(trace, 1.0) / K : jitter * 10;
+        } while (!Kernels.cholesky(gt, K));
+
+        for (int i = 0; i < K; i++) {
+            for (int j = i + 1; j < K; j++) {
+                gt[i * K + j] = 0.0;
+            }
         }
 
         return gt;
     }
 
-    private static <O> void prepareRR1(int L, DoubleMatrix1D w, DoubleMatrix2D gt, DoubleMatrix2D q, int N, Stream<? extends IdxPref> prefs, DoubleUnaryOperator confidence, double lambda) {
-        int K = (int) w.size();
-
-        double[][] x = new double[K + N][K];
-        double[] y = new double[K + N];
-        double[] c = new double[K + N];
+    /**
+     * Fills the examples of the ridge regression of a user: first, the K
+     * columns of gt with target 0 and weight 1, then the items of the user.
+     * The examples are stored column-wise, x[k * N + i] being the k-th
+     * feature of the i-th example.
+     */
+    private static <U, I> void prepareRR1(RR1Buffer buffer, double[] gt, DenseFactorMatrix q, FastPreferenceData<U, I> data, int uidx, DoubleUnaryOperator confidence) {
+        int K = buffer.K;
+        int N = K + data.numItems(uidx);
+        buffer.ensureCapacity(N);
+
+        double[] x = buffer.x;
+        double[] y = buffer.y;
+        double[] c = buffer.c;
         for (int k = 0; k < K; k++) {
-            gt.viewColumn(k).toArray(x[k]);
+            for (int f = 0; f < K; f++) {
+                x[f * N + k] = gt[f * K + k];
+            }
             y[k] = 0.0;
             c[k] = 1.0;
         }
+        double[] qd = q.getData();
         int[] j = {K};
-        prefs.forEach(iv -> {
-            q.viewRow(iv.idx).toArray(x[j[0]]);
+        data.getUidxPreferences(uidx).forEach(iv -> {
+            int qi = q.offset(iv.idx);
+            for (int f = 0; f < K; f++) {
+                x[f * N + j[0]] = qd[qi + f];
+            }
             double Cui = confidence.applyAsDouble(iv.v);
             y[j[0]] = (Cui * iv.v) / (Cui - 1);
             c[j[0]] = Cui - 1;
             j[0]++;
         });
-        
-        doRR1(L, w, x, y, c, lambda);
+        buffer.N = N;
     }
 
-    private static void doRR1(int L, DoubleMatrix1D w, double[][] x, double[] y, double[] c, double lambda) {
-        int N = x.length;
-        int K = x[0].length;
-        
-        double[] e = new double[N];
-        for (int i = 0; i < N; i++) {
-            double pred = 0.0;
-            for (int k = 0; k < K; k++) {
-                pred += w.getQuick(k) * x[i][k];
-            }
-            e[i] = y[i] - pred;
+    private static void doRR1(int L, DenseFactorMatrix p, int uidx, RR1Buffer buffer, double lambda) {
+        int N = buffer.N;
+        int K = buffer.K;
+        double[] x = buffer.x;
+        double[] c = buffer.c;
+        double[] e = buffer.e;
+        double[] w = p.getData();
+        int wo = p.offset(uidx);
+
+        System.arraycopy(buffer.y, 0, e, 0, N);
+        for (int k = 0; k < K; k++) {
+            Kernels.axpy(-w[wo + k], x, k * N, e, 0, N);
         }
 
         for (int l = 0; l < L; l++) {
             for (int k = 0; k < K; k++) {
-                for (int i = 0; i < N; i++) {
-                    e[i] += w.getQuick(k) * x[i][k];
-                }
+                int xk = k * N;
+                Kernels.axpy(w[wo + k], x, xk, e, 0, N);
                 double a = 0.0;
                 double d = 0.0;
                 for (int i = 0; i < N; i++) {
-                    a += c[i] * x[i][k] * x[i][k];
-                    d += c[i] * x[i][k] * e[i];
-                }
-                w.setQuick(k, d / (lambda + a));
-                for (int i = 0; i < N; i++) {
-                    e[i] -= w.getQuick(k) * x[i][k];
+                    double cx = c[i] * x[xk + i];
+                    a += cx * x[xk + i];
+                    d += cx * e[i];
                 }
+                w[wo + k] = d / (lambda + a);
+                Kernels.axpy(-w[wo + k], x, xk, e, 0, N);
             }
         }
+    }
+
+    private static class RR1Buffer {
+
+        private final int K;
+        private int N;
+        private double[] x;
+        private double[] y;
+        private double[] c;
+        private double[] e;
+
+        public RR1Buffer(int K) {
+            this.K = K;
+            this.N = 0;
+            this.x = new double[0];
+            this.y = new double[0];
+            this.c = new double[0];
+            this.e = new double[0];
+        }
 
+        public void ensureCapacity(int N) {
+            if (y.length < N) {
+                int n = Math.max(N, 2 * y.length);
+                x = new double[K * n];
+                y = new double[n];
+                c = new double[n];
+                e = new double[n];
+            }
+        }
     }
 }
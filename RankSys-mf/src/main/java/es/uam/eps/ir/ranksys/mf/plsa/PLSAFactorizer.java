@@ -9,30 +9,21 @@
 package es.uam.eps.ir.ranksys.mf.plsa;
 
 import cern.colt.function.DoubleFunction;
-import cern.colt.matrix.DoubleMatrix1D;
-import cern.colt.matrix.impl.DenseDoubleMatrix2D;
-import static cern.jet.math.Functions.identity;
-import static cern.jet.math.Functions.mult;
-import static cern.jet.math.Functions.plus;
-import es.uam.eps.ir.ranksys.fast.preference.AbstractFastPreferenceData;
 import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
-import es.uam.eps.ir.ranksys.fast.preference.IdxPref;
 import es.uam.eps.ir.ranksys.mf.Factorization;
 import es.uam.eps.ir.ranksys.mf.Factorizer;
-import it.unimi.dsi.fastutil.doubles.DoubleIterator;
-import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.ints.IntIterator;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import static java.lang.Math.sqrt;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
+import org.ranksys.mf.matrix.DenseFactorMatrix;
+import org.ranksys.mf.matrix.FactorMatrix;
+import org.ranksys.mf.monitor.Iteration;
 
 /**
  * Probabilistic Latent Semantic Analysis of Hofmann.
@@ -61,14 +52,16 @@ public class PLSAFactorizer<U, I> extends Factorizer<U, I> {
 
     @Override
     public double error(Factorization<U, I> factorization, FastPreferenceData<U, I> data) {
-        DenseDoubleMatrix2D pu_z = factorization.getUserMatrix();
-        DenseDoubleMatrix2D piz = factorization.getItemMatrix();
+        FactorMatrix pu_z = factorization.getUserFactors();
+        FactorMatrix piz = factorization.getItemFactors();
 
         double error = data.getUidxWithPreferences().parallel().mapToDouble(uidx -> {
-            DoubleMatrix1D pU_z = pu_z.viewRow(uidx);
-            DoubleMatrix1D pUi = piz.zMult(pU_z, null);
+            double[] pU_z = new double[pu_z.columns()];
+            pu_z.getRow(uidx, pU_z);
+            double[] pUi = new double[piz.rows()];
+            piz.mult(pU_z, pUi);
             return data.getUidxPreferences(uidx).mapToDouble(iv -> {
-                return -iv.v * pUi.getQuick(iv.idx);
+                return -iv.v * pUi[iv.idx];
             }).sum();
         }).sum();
 
@@ -85,26 +78,26 @@ public class PLSAFactorizer<U, I> extends Factorizer<U, I> {
 
     @Override
     public void factorize(Factorization<U, I> factorization, FastPreferenceData<U, I> data) {
-        DenseDoubleMatrix2D pu_z = factorization.getUserMatrix();
-        DenseDoubleMatrix2D piz = factorization.getItemMatrix();
+        DenseFactorMatrix pu_z = factorization.getUserFactors().asDense();
+        DenseFactorMatrix piz = factorization.getItemFactors().asDense();
 
         IntSet uidxs = new IntOpenHashSet(data.getUidxWithPreferences().toArray());
-        IntStream.range(0, pu_z.rows()).filter(uidx -> !uidxs.contains(uidx)).forEach(uidx -> pu_z.viewRow(uidx).assign(0.0));
+        IntStream.range(0, pu_z.rows()).filter(uidx -> !uidxs.contains(uidx)).forEach(uidx -> pu_z.fillRow(uidx, 0.0));
         IntSet iidxs = new IntOpenHashSet(data.getIidxWithPreferences().toArray());
-        IntStream.range(0, piz.rows()).filter(iidx -> !iidxs.contains(iidx)).forEach(iidx -> piz.viewRow(iidx).assign(0.0));
+        IntStream.range(0, piz.rows()).filter(iidx -> !iidxs.contains(iidx)).forEach(iidx -> piz.fillRow(iidx, 0.0));
 
-        PLSAPreferenceData<U, I> plsaData = new PLSAPreferenceData<>(data, pu_z.columns());
+        PLSAData plsaData = new PLSAData(data, pu_z.columns());
 
         for (int z = 0; z < pu_z.columns(); z++) {
-            final DoubleMatrix1D pu_Z = pu_z.viewColumn(z);
-            pu_Z.assign(mult(1 / pu_Z.aggregate(plus, identity)));
+            pu_z.scaleColumn(z, 1 / pu_z.sumColumn(z));
         }
-        piz.assign(mult(1 / piz.aggregate(plus, identity)));
+        piz.scale(1 / piz.sum());
 
         for (int t = 1; t <= numIter; t++) {
             long time0 = System.nanoTime();
 
             expectation(pu_z, piz, plsaData);
+            long timeE = System.nanoTime() - time0;
             maximization(pu_z, piz, plsaData);
 
             int iter = t;
@@ -112,167 +105,152 @@ public class PLSAFactorizer<U, I> extends Factorizer<U, I> {
 
             LOG.log(Level.INFO, String.format("iteration n = %3d t = %.2fs", iter, time1 / 1_000_000_000.0));
             LOG.log(Level.FINE, () -> String.format("iteration n = %3d e = %.6f", iter, error(factorization, data)));
+
+            if (hasIterationListeners()) {
+                Map<String, Long> stepTimes = new LinkedHashMap<>();
+                stepTimes.put("E", timeE);
+                stepTimes.put("M", time1 - timeE);
+                if (!notifyIteration(new Iteration<>(iter, stepTimes, factorization, () -> error(factorization, data)))) {
+                    break;
+                }
+            }
         }
     }
 
-    private void expectation(final DenseDoubleMatrix2D pz_u, final DenseDoubleMatrix2D piz, PLSAPreferenceData<U, I> qzData) {
-        qzData.getUidxWithPreferences().parallel().forEach(uidx -> {
-            qzData.getUidxPreferences(uidx).forEach(iqz -> {
-                int iidx = iqz.idx;
-                double[] qz = ((PLSAPreferenceData.PLSAIdxPref) iqz).qz;
-                for (int z = 0; z < qz.length; z++) {
-                    qz[z] = piz.getQuick(iidx, z) * pz_u.getQuick(uidx, z);
+    private void expectation(final DenseFactorMatrix pu_z, final DenseFactorMatrix piz, PLSAData qzData) {
+        int K = qzData.K;
+        double[] pud = pu_z.getData();
+        double[] pid = piz.getData();
+
+        IntStream.range(0, qzData.uidxs.length).parallel().forEach(u -> {
+            int uidx = qzData.uidxs[u];
+            int uo = pu_z.offset(uidx);
+            for (int j = qzData.offsets[u]; j < qzData.offsets[u + 1]; j++) {
+                double[] qz = qzData.getQzChunk(j);
+                int qo = qzData.getQzOffset(j);
+                int io = piz.offset(qzData.iidxs[j]);
+                double norm = 0;
+                for (int z = 0; z < K; z++) {
+                    double q = pid[io + z] * pud[uo + z];
+                    qz[qo + z] = q;
+                    norm += q;
                 }
-                normalizeQz(qz);
-            });
+                for (int z = 0; z < K; z++) {
+                    qz[qo + z] /= norm;
+                }
+            }
         });
     }
 
-    private void maximization(DenseDoubleMatrix2D pu_z, final DenseDoubleMatrix2D piz, final PLSAPreferenceData<U, I> qzData) {
-        Int2ObjectMap<Lock> lockMap = new Int2ObjectOpenHashMap<>();
-        qzData.getIidxWithPreferences().forEach(iidx -> lockMap.put(iidx, new ReentrantLock()));
-
-        pu_z.assign(0.0);
-        piz.assign(0.0);
-
-        qzData.getUidxWithPreferences().parallel().forEach(uidx -> {
-            final DoubleMatrix1D pz_U = pu_z.viewRow(uidx);
-
-            qzData.getUidxPreferences(uidx).forEach(iqz -> {
-                int iidx = iqz.idx;
-                double v = iqz.v;
-                double[] qz = ((PLSAPreferenceData.PLSAIdxPref) iqz).qz;
-                Lock lock = lockMap.get(iidx);
-
-                for (int z = 0; z < qz.length; z++) {
-                    double r = qz[z] * v;
-                    pz_U.setQuick(z, pz_U.getQuick(z) + r);
+    private void maximization(DenseFactorMatrix pu_z, final DenseFactorMatrix piz, final PLSAData qzData) {
+        int K = qzData.K;
+        double[] pud = pu_z.getData();
+        double[] pid = piz.getData();
+
+        pu_z.fill(0.0);
+        piz.fill(0.0);
+
+        // user and item rows are each accumulated by a single thread, the
+        // latter by traversing the preferences of each item
+        IntStream.range(0, qzData.uidxs.length).parallel().forEach(u -> {
+            int uo = pu_z.offset(qzData.uidxs[u]);
+            for (int j = qzData.offsets[u]; j < qzData.offsets[u + 1]; j++) {
+                double[] qz = qzData.getQzChunk(j);
+                int qo = qzData.getQzOffset(j);
+                double v = qzData.vs[j];
+                for (int z = 0; z < K; z++) {
+                    pud[uo + z] += qz[qo + z] * v;
                 }
-                lock.lock();
-                try {
-                    for (int z = 0; z < qz.length; z++) {
-                        double r = qz[z] * v;
-                        piz.setQuick(iidx, z, piz.getQuick(iidx, z) + r);
-                    }
-                } finally {
-                    lock.unlock();
+            }
+        });
+        IntStream.range(0, piz.rows()).parallel().forEach(iidx -> {
+            int io = piz.offset(iidx);
+            for (int p = qzData.itemOffsets[iidx]; p < qzData.itemOffsets[iidx + 1]; p++) {
+                int j = qzData.itemPrefs[p];
+                double[] qz = qzData.getQzChunk(j);
+                int qo = qzData.getQzOffset(j);
+                double v = qzData.vs[j];
+                for (int z = 0; z < K; z++) {
+                    pid[io + z] += qz[qo + z] * v;
                 }
-            });
+            }
         });
 
         for (int z = 0; z < pu_z.columns(); z++) {
-            final DoubleMatrix1D pZ_u = pu_z.viewColumn(z);
-            pZ_u.assign(mult(1 / pZ_u.aggregate(plus, identity)));
+            pu_z.scaleColumn(z, 1 / pu_z.sumColumn(z));
         }
-        piz.assign(mult(1 / piz.aggregate(plus, identity)));
+        piz.scale(1 / piz.sum());
     }
 
-    private void normalizeQz(double[] qz) {
-        double norm = 0;
-        for (int i = 0; i < qz.length; i++) {
-            norm += qz[i];
-        }
-        for (int i = 0; i < qz.length; i++) {
-            qz[i] /= norm;
-        }
-    }
-
-    private static class PLSAPreferenceData<U, I> extends AbstractFastPreferenceData<U, I> {
-
-        private final FastPreferenceData<U, I> data;
-        private final Long2ObjectOpenHashMap<double[]> qz;
-
-        public PLSAPreferenceData(FastPreferenceData<U, I> data, int K) {
-            super(data, data);
-            this.data = data;
-            this.qz = new Long2ObjectOpenHashMap<>();
-            data.getUidxWithPreferences().forEach(uidx -> {
-                data.getUidxPreferences(uidx).forEach(pref -> {
-                    putQz(uidx, pref.idx, new double[K]);
+    /**
+     * Preferences in compressed sparse row format, with the responsibilities
+     * q(z | u, i) of each preference stored contiguously in the same order,
+     * and the positions of the preferences of each item.
+     * Since the number of responsibilities may exceed the maximum size of an
+     * array, they are split in chunks of whole preferences.
+     */
+    private static class PLSAData {
+
+        private static final int CHUNK_DOUBLES = 1 << 27;
+
+        private final int K;
+        private final int[] uidxs;
+        private final int[] offsets;
+        private final int[] iidxs;
+        private final double[] vs;
+        private final int[] itemOffsets;
+        private final int[] itemPrefs;
+        private final int prefsPerChunk;
+        private final double[][] qzChunks;
+
+        public PLSAData(FastPreferenceData<?, ?> data, int K) {
+            this.K = K;
+            this.uidxs = data.getUidxWithPreferences().toArray();
+            this.offsets = new int[uidxs.length + 1];
+            for (int u = 0; u < uidxs.length; u++) {
+                offsets[u + 1] = offsets[u] + data.numItems(uidxs[u]);
+            }
+            int numPrefs = offsets[uidxs.length];
+            this.iidxs = new int[numPrefs];
+            this.vs = new double[numPrefs];
+            IntStream.range(0, uidxs.length).parallel().forEach(u -> {
+                int[] j = {offsets[u]};
+                data.getUidxPreferences(uidxs[u]).forEach(pref -> {
+                    iidxs[j[0]] = pref.idx;
+                    vs[j[0]] = pref.v;
+                    j[0]++;
                 });
             });
 
-        }
-
-        private double[] getQz(int uidx, int iidx) {
-            return qz.get(uidx * data.numItems() + iidx);
-        }
-
-        private double[] putQz(int uidx, int iidx, double[] v) {
-            return qz.put(uidx * data.numItems() + iidx, v);
-        }
-
-        @Override
-        public int numUsers(int iidx) {
-            return data.numUsers(iidx);
-        }
-
-        @Override
-        public int numItems(int uidx) {
-            return data.numItems(uidx);
-        }
-
-        @Override
-        public IntStream getUidxWithPreferences() {
-            return data.getUidxWithPreferences();
-        }
-
-        @Override
-        public IntStream getIidxWithPreferences() {
-            return data.getIidxWithPreferences();
-        }
-
-        @Override
-        public Stream<IdxPref> getUidxPreferences(int uidx) {
-            return data.getUidxPreferences(uidx)
-                    .map(pref -> new PLSAIdxPref(pref.idx, pref.v, getQz(uidx, pref.idx)));
-        }
-
-        @Override
-        public Stream<IdxPref> getIidxPreferences(int iidx) {
-            return data.getIidxPreferences(iidx)
-                    .map(pref -> new PLSAIdxPref(pref.idx, pref.v, getQz(pref.idx, iidx)));
-        }
-
-        @Override
-        public IntIterator getUidxIidxs(int uidx) {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public DoubleIterator getUidxVs(int uidx) {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public IntIterator getIidxUidxs(int iidx) {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public DoubleIterator getIidxVs(int iidx) {
-            throw new UnsupportedOperationException();
-        }
+            int numItems = data.numItems();
+            this.itemOffsets = new int[numItems + 1];
+            for (int j = 0; j < numPrefs; j++) {
+                itemOffsets[iidxs[j] + 1]++;
+            }
+            for (int iidx = 0; iidx < numItems; iidx++) {
+                itemOffsets[iidx + 1] += itemOffsets[iidx];
+            }
+            this.itemPrefs = new int[numPrefs];
+            int[] cursors = Arrays.copyOf(itemOffsets, numItems);
+            for (int j = 0; j < numPrefs; j++) {
+                itemPrefs[cursors[iidxs[j]]++] = j;
+            }
 
-        @Override
-        public boolean useIteratorsPreferentially() {
-            return false;
+            this.prefsPerChunk = Math.max(1, CHUNK_DOUBLES / K);
+            int numChunks = (int) (((long) numPrefs + prefsPerChunk - 1) / prefsPerChunk);
+            this.qzChunks = new double[numChunks][];
+            for (int c = 0; c < numChunks; c++) {
+                int n = Math.min(prefsPerChunk, numPrefs - c * prefsPerChunk);
+                qzChunks[c] = new double[n * K];
+            }
         }
 
-        @Override
-        public int numPreferences() {
-            return data.numPreferences();
+        public double[] getQzChunk(int j) {
+            return qzChunks[j / prefsPerChunk];
         }
 
-        public class PLSAIdxPref extends IdxPref {
-
-            public double[] qz;
-
-            public PLSAIdxPref(int idx, double value, double[] qz) {
-                super(idx, value);
-                this.qz = qz;
-            }
-
+        public int getQzOffset(int j) {
+            return (j % prefsPerChunk) * K;
         }
     }
 }
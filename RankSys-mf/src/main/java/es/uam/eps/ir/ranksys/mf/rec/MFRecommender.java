@@ -8,7 +8,6 @@
  */
 package es.uam.eps.ir.ranksys.mf.rec;
 
-import cern.colt.matrix.DoubleMatrix1D;
 import es.uam.eps.ir.ranksys.fast.IdxDouble;
 import es.uam.eps.ir.ranksys.fast.FastRecommendation;
 import es.uam.eps.ir.ranksys.fast.index.FastItemIndex;
@@ -16,23 +15,45 @@ import es.uam.eps.ir.ranksys.fast.index.FastUserIndex;
 import es.uam.eps.ir.ranksys.fast.utils.topn.IntDoubleTopN;
 import es.uam.eps.ir.ranksys.rec.fast.AbstractFastRecommender;
 import es.uam.eps.ir.ranksys.mf.Factorization;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.ranksys.mf.matrix.DenseFactorMatrix;
+import org.ranksys.mf.matrix.FactorMatrix;
+import org.ranksys.mf.matrix.Kernels;
+import org.ranksys.mf.mips.IVFIndex;
+import org.ranksys.rec.fast.FastBatchRecommender;
 
 /**
  * Matrix factorization recommender. Scores are calculated as the inner product
  * of user and item vectors.
+ * <br>
+ * Optionally, an {@link IVFIndex} over the item matrix can be used to score
+ * only the items of the clusters closest to the user vector. If the probed
+ * clusters do not provide enough items that pass the filter, the
+ * recommendation falls back to scoring the whole catalog.
+ * <br>
+ * Without an index, batches of users are scored as a blocked matrix
+ * multiplication: each tile of the item matrix is multiplied with a block of
+ * user vectors while it is in cache, instead of streaming the whole item
+ * matrix from memory once per user.
  *
  * @author Saúl Vargas (saul.vargas@uam.es)
  * 
  * @param <U> type of the users
  * @param <I> type of the items
  */
-public class MFRecommender<U, I> extends AbstractFastRecommender<U, I> {
+public class MFRecommender<U, I> extends AbstractFastRecommender<U, I> implements FastBatchRecommender<U, I> {
+
+    private static final int BLOCK_USERS = 64;
+    private static final int TILE_DOUBLES = 16384;
 
     private final Factorization<U, I> factorization;
+    private final IVFIndex index;
+    private final int nprobe;
+    private final ThreadLocal<double[]> buffers;
 
     /**
      * Constructor.
@@ -42,37 +63,273 @@ public class MFRecommender<U, I> extends AbstractFastRecommender<U, I> {
      * @param factorization matrix factorization
      */
     public MFRecommender(FastUserIndex<U> uIndex, FastItemIndex<I> iIndex, Factorization<U, I> factorization) {
+        this(uIndex, iIndex, factorization, null, 0);
+    }
+
+    /**
+     * Constructor with an approximate maximum inner product search index.
+     *
+     * @param uIndex fast user index
+     * @param iIndex fast item index
+     * @param factorization matrix factorization
+     * @param index index over the item matrix of the factorization, null for
+     * exact scoring
+     * @param nprobe number of clusters of the index to be probed, the greater
+     * the more accurate and slower
+     */
+    public MFRecommender(FastUserIndex<U> uIndex, FastItemIndex<I> iIndex, Factorization<U, I> factorization, IVFIndex index, int nprobe) {
         super(uIndex, iIndex);
         this.factorization = factorization;
+        this.index = index;
+        this.nprobe = nprobe;
+        this.buffers = ThreadLocal.withInitial(() -> new double[factorization.getItemFactors().rows()]);
     }
 
     @Override
     public FastRecommendation getRecommendation(int uidx, int maxLength, IntPredicate filter) {
-        DoubleMatrix1D pu;
+        double[] pu = getUserVector(uidx);
+        if (pu == null) {
+            return new FastRecommendation(uidx, new int[0], new double[0]);
+        }
 
-        pu = factorization.getUserVector(uidx2user(uidx));
+        return toRecommendation(uidx, getTopN(pu, maxLength, filter));
+    }
+
+    /**
+     * Recommendation of a set of candidate items. Only the candidates are
+     * scored, so that its cost does not depend on the size of the catalog.
+     *
+     * @param uidx index of the user
+     * @param candidates candidate item indexes
+     * @return recommendation of the candidates, by decreasing score
+     */
+    @Override
+    public FastRecommendation getRecommendation(int uidx, IntStream candidates) {
+        double[] pu = getUserVector(uidx);
         if (pu == null) {
-            return new FastRecommendation(uidx, new ArrayList<>());
+            return new FastRecommendation(uidx, new int[0], new double[0]);
         }
 
+        return toRecommendation(uidx, getCandidateTopN(pu, candidates));
+    }
+
+    /**
+     * Scores a set of candidate items for a user vector.
+     *
+     * @param pu user vector
+     * @param candidates candidate item indexes
+     * @return unsorted heap with the distinct candidates and their scores
+     */
+    protected IntDoubleTopN getCandidateTopN(double[] pu, IntStream candidates) {
+        int[] cs = toCandidateArray(candidates);
+        IntDoubleTopN topN = new IntDoubleTopN(cs.length);
+        for (int iidx : cs) {
+            topN.add(iidx, score(pu, iidx));
+        }
+
+        return topN;
+    }
+
+    /**
+     * Returns the vector of a user.
+     *
+     * @param uidx index of the user
+     * @return user vector, null if the user is not in the factorization
+     */
+    protected double[] getUserVector(int uidx) {
+        int fuidx = factorization.user2uidx(uidx2user(uidx));
+        if (fuidx < 0) {
+            return null;
+        }
+
+        double[] pu = new double[factorization.getK()];
+        factorization.getUserFactors().getRow(fuidx, pu);
+
+        return pu;
+    }
+
+    /**
+     * Score of a single item for a user vector.
+     *
+     * @param pu user vector
+     * @param iidx index of the item
+     * @return score of the item
+     */
+    protected double score(double[] pu, int iidx) {
+        return factorization.getItemFactors().dot(iidx, pu);
+    }
+
+    /**
+     * Recommendation for a user vector, which does not need to be a row of
+     * the factorization, e.g., that of a user folded in after training.
+     *
+     * @param pu user vector
+     * @param maxLength maximum length of recommendation, set to 0 for no limit
+     * @param filter (fast) filter to decide which items might be recommended
+     * @return list of item-score pairs, by decreasing score
+     */
+    public List<IdxDouble> getRecommendation(double[] pu, int maxLength, IntPredicate filter) {
+        IntDoubleTopN topN = getTopN(pu, maxLength, filter);
+        topN.sort();
+
+        return topN.reverseStream()
+                .map(e -> new IdxDouble(e))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Selects the items with the greatest scores for a user vector.
+     *
+     * @param pu user vector
+     * @param maxLength maximum length of recommendation, set to 0 for no limit
+     * @param filter (fast) filter to decide which items might be recommended
+     * @return unsorted heap of item-score pairs
+     */
+    protected IntDoubleTopN getTopN(double[] pu, int maxLength, IntPredicate filter) {
         if (maxLength == 0) {
             maxLength = factorization.numItems();
         }
         IntDoubleTopN topN = new IntDoubleTopN(maxLength);
 
-        DoubleMatrix1D r = factorization.getItemMatrix().zMult(pu, null);
-        for (int iidx = 0; iidx < r.size(); iidx++) {
-            if (filter.test(iidx)) {
-                topN.add(iidx, r.getQuick(iidx));
+        FactorMatrix q = factorization.getItemFactors();
+        boolean exact = index == null || maxLength >= q.rows();
+        if (!exact) {
+            exact = index.search(pu, nprobe, filter, topN) < maxLength;
+            if (exact) {
+                topN = new IntDoubleTopN(maxLength);
+            }
+        }
+        if (exact) {
+            double[] scores = buffers.get();
+            q.mult(pu, scores);
+            double min = Double.NEGATIVE_INFINITY;
+            for (int iidx = 0; iidx < scores.length; iidx++) {
+                double v = scores[iidx];
+                if (!(v < min) && filter.test(iidx) && topN.add(iidx, v) && topN.size() == maxLength) {
+                    min = topN.peekDouble();
+                }
             }
         }
 
-        topN.sort();
-        
-        List<IdxDouble> items = topN.reverseStream()
-                .map(e -> new IdxDouble(e))
-                .collect(Collectors.toList());
+        return topN;
+    }
+
+    @Override
+    public List<FastRecommendation> getRecommendations(int[] uidxs, int maxLength, List<IntPredicate> filters) {
+        if (index != null) {
+            return FastBatchRecommender.super.getRecommendations(uidxs, maxLength, filters);
+        }
+
+        int K = factorization.getK();
+        FastRecommendation[] recs = new FastRecommendation[uidxs.length];
+        if (maxLength == 0) {
+            maxLength = factorization.numItems();
+        }
+
+        int[] block = new int[BLOCK_USERS];
+        double[] p = new double[BLOCK_USERS * K];
+        double[] pu = new double[K];
+        int j = 0;
+        while (j < uidxs.length) {
+            int B = 0;
+            for (; j < uidxs.length && B < BLOCK_USERS; j++) {
+                int fuidx = factorization.user2uidx(uidx2user(uidxs[j]));
+                if (fuidx < 0) {
+                    recs[j] = new FastRecommendation(uidxs[j], new int[0], new double[0]);
+                } else {
+                    factorization.getUserFactors().getRow(fuidx, pu);
+                    System.arraycopy(pu, 0, p, B * K, K);
+                    block[B++] = j;
+                }
+            }
+            if (B > 0) {
+                IntDoubleTopN[] topNs = getBlockRecommendation(p, B, block, maxLength, filters);
+                for (int b = 0; b < B; b++) {
+                    recs[block[b]] = toRecommendation(uidxs[block[b]], topNs[b]);
+                }
+            }
+        }
+
+        return Arrays.asList(recs);
+    }
+
+    /**
+     * Collects candidate item indexes into a sorted array without duplicates
+     * nor negative (unknown) indexes.
+     *
+     * @param candidates candidate item indexes
+     * @return sorted array of distinct candidate indexes
+     */
+    protected static int[] toCandidateArray(IntStream candidates) {
+        int[] cs = candidates.toArray();
+        Arrays.sort(cs);
+
+        int n = 0;
+        for (int j = 0; j < cs.length; j++) {
+            if (cs[j] >= 0 && (n == 0 || cs[j] != cs[n - 1])) {
+                cs[n++] = cs[j];
+            }
+        }
+
+        return n == cs.length ? cs : Arrays.copyOf(cs, n);
+    }
+
+    private IntDoubleTopN[] getBlockRecommendation(double[] p, int B, int[] block, int maxLength, List<IntPredicate> filters) {
+        int K = factorization.getK();
+        FactorMatrix q = factorization.getItemFactors();
+        int T = Math.max(8, TILE_DOUBLES / Math.max(1, K));
+
+        IntDoubleTopN[] topNs = new IntDoubleTopN[B];
+        double[] mins = new double[B];
+        IntPredicate[] blockFilters = new IntPredicate[B];
+        for (int b = 0; b < B; b++) {
+            topNs[b] = new IntDoubleTopN(maxLength);
+            mins[b] = Double.NEGATIVE_INFINITY;
+            blockFilters[b] = filters.get(block[b]);
+        }
+
+        // dense matrices are read in place, other storages are copied by tiles
+        double[] qd;
+        int ldq;
+        double[] tile = null;
+        if (q instanceof DenseFactorMatrix) {
+            qd = ((DenseFactorMatrix) q).getData();
+            ldq = ((DenseFactorMatrix) q).getStride();
+        } else {
+            tile = new double[T * K];
+            qd = tile;
+            ldq = K;
+        }
+        double[] qi = tile == null ? null : new double[K];
+
+        double[] s = new double[B * T];
+        for (int t0 = 0; t0 < q.rows(); t0 += T) {
+            int nt = Math.min(T, q.rows() - t0);
+            int qo;
+            if (tile == null) {
+                qo = t0 * ldq;
+            } else {
+                for (int t = 0; t < nt; t++) {
+                    q.getRow(t0 + t, qi);
+                    System.arraycopy(qi, 0, tile, t * K, K);
+                }
+                qo = 0;
+            }
+
+            Kernels.gemmNT(p, 0, K, B, qd, qo, ldq, nt, K, s, 0, T);
+
+            for (int b = 0; b < B; b++) {
+                IntPredicate filter = blockFilters[b];
+                IntDoubleTopN topN = topNs[b];
+                for (int t = 0; t < nt; t++) {
+                    double v = s[b * T + t];
+                    if (!(v < mins[b]) && filter.test(t0 + t) && topN.add(t0 + t, v) && topN.size() == maxLength) {
+                        mins[b] = topN.peekDouble();
+                    }
+                }
+            }
+        }
 
-        return new FastRecommendation(uidx, items);
+        return topNs;
     }
 }
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.distributed;
+
+import cern.colt.function.DoubleFunction;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import es.uam.eps.ir.ranksys.fast.preference.TransposedPreferenceData;
+import es.uam.eps.ir.ranksys.mf.Factorization;
+import es.uam.eps.ir.ranksys.mf.Factorizer;
+import es.uam.eps.ir.ranksys.mf.als.HKVFactorizer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import static java.lang.Math.sqrt;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.ranksys.mf.matrix.DenseFactorMatrix;
+import org.ranksys.mf.matrix.FactorMatrix;
+import org.ranksys.mf.monitor.Iteration;
+
+/**
+ * Alternating least-squares factorizer for implicit feedback whose half-steps
+ * run on worker processes. Users and items are partitioned in blocks of
+ * consecutive indexes, and each worker solves the least-squares problems of
+ * its blocks against the blocks of the other side, which are exchanged
+ * through a {@link BlockTransport}. Workers only hold the preferences of
+ * their blocks and the rows of the other side they read, so that the
+ * computation is spread across processes and, with a shared transport,
+ * machines.
+ * <br>
+ * The objective is that of {@link HKVFactorizer} with linear confidence
+ * c(r) = 1 + alpha r, since the confidence function has to be sent to the
+ * workers.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <U> type of the users
+ * @param <I> type of the items
+ */
+public class BlockALSFactorizer<U, I> extends Factorizer<U, I> {
+
+    private static final Logger LOG = Logger.getLogger(BlockALSFactorizer.class.getName());
+
+    static final String USERS = "P";
+    static final String ITEMS = "Q";
+
+    private final double lambdaP;
+    private final double lambdaQ;
+    private final double alpha;
+    private final int numIter;
+    private final int numBlocks;
+    private final int numWorkers;
+    private final Path workDir;
+    private final BlockTransport transport;
+
+    /**
+     * Constructor. Factor blocks are exchanged through memory-mapped files in
+     * the working directory.
+     *
+     * @param lambda regularization factor
+     * @param alpha slope of the linear confidence function
+     * @param numIter number of iterations
+     * @param numBlocks number of blocks of users and of items
+     * @param numWorkers number of worker processes
+     * @param workDir working directory for the partitioned preferences
+     */
+    public BlockALSFactorizer(double lambda, double alpha, int numIter, int numBlocks, int numWorkers, Path workDir) {
+        this(lambda, lambda, alpha, numIter, numBlocks, numWorkers, workDir, new MappedFileTransport(workDir));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param lambdaP regularization factor for user matrix
+     * @param lambdaQ regularization factor for item matrix
+     * @param alpha slope of the linear confidence function
+     * @param numIter number of iterations
+     * @param numBlocks number of blocks of users and of items
+     * @param numWorkers number of worker processes
+     * @param workDir working directory for the partitioned preferences,
+     * accessible by the workers
+     * @param transport transport of factor blocks
+     */
+    public BlockALSFactorizer(double lambdaP, double lambdaQ, double alpha, int numIter, int numBlocks, int numWorkers, Path workDir, BlockTransport transport) {
+        this.lambdaP = lambdaP;
+        this.lambdaQ = lambdaQ;
+        this.alpha = alpha;
+        this.numIter = numIter;
+        this.numBlocks = numBlocks;
+        this.numWorkers = numWorkers;
+        this.workDir = workDir;
+        this.transport = transport;
+    }
+
+    static String key(String side, int block) {
+        return side + "." + block;
+    }
+
+    static String gramKey(String side, int block) {
+        return side + "." + block + ".gram";
+    }
+
+    @Override
+    public double error(Factorization<U, I> factorization, FastPreferenceData<U, I> data) {
+        return new HKVFactorizer<U, I>(lambdaP, lambdaQ, x -> 1.0 + alpha * x, 0).error(factorization, data);
+    }
+
+    @Override
+    public Factorization<U, I> factorize(int K, FastPreferenceData<U, I> data) {
+        DoubleFunction init = x -> sqrt(1.0 / K) * Math.random();
+        Factorization<U, I> factorization = new Factorization<>(data, data, K, init);
+        factorize(factorization, data);
+        return factorization;
+    }
+
+    @Override
+    public void factorize(Factorization<U, I> factorization, FastPreferenceData<U, I> data) {
+        try {
+            run(factorization, data);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void run(Factorization<U, I> factorization, FastPreferenceData<U, I> data) throws IOException {
+        DenseFactorMatrix p = factorization.getUserFactors().asDense();
+        DenseFactorMatrix q = factorization.getItemFactors().asDense();
+
+        Files.createDirectories(workDir);
+        BlockALSJob job = new BlockALSJob(factorization.getK(), lambdaP, lambdaQ, alpha, p.rows(), q.rows(), numBlocks, workDir.toAbsolutePath().toString(), transport);
+
+        partition(job, data);
+        for (int b = 0; b < numBlocks; b++) {
+            publish(job, USERS, b, p, data);
+        }
+
+        Path jobPath = workDir.resolve("job.ser");
+        try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(jobPath))) {
+            out.writeObject(job);
+        }
+
+        List<WorkerProcess> workers = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+        try {
+            for (int w = 0; w < numWorkers; w++) {
+                workers.add(new WorkerProcess(jobPath));
+            }
+
+            for (int t = 1; t <= numIter; t++) {
+                long time0 = System.nanoTime();
+
+                step(ITEMS, workers, executor);
+                long timeQ = System.nanoTime() - time0;
+                step(USERS, workers, executor);
+
+                int iter = t;
+                long time1 = System.nanoTime() - time0;
+
+                LOG.log(Level.INFO, String.format("iteration n = %3d t = %.2fs", iter, time1 / 1_000_000_000.0));
+
+                boolean fine = LOG.isLoggable(Level.FINE);
+                if (fine || hasIterationListeners() || t == numIter) {
+                    collect(job, USERS, p);
+                    collect(job, ITEMS, q);
+                }
+                if (fine) {
+                    LOG.log(Level.FINE, String.format("iteration n = %3d e = %.6f", iter, error(factorization, data)));
+                }
+
+                if (hasIterationListeners()) {
+                    Map<String, Long> stepTimes = new LinkedHashMap<>();
+                    stepTimes.put(ITEMS, timeQ);
+                    stepTimes.put(USERS, time1 - timeQ);
+                    if (!notifyIteration(new Iteration<>(iter, stepTimes, factorization, () -> error(factorization, data)))) {
+                        break;
+                    }
+                }
+            }
+
+            for (WorkerProcess worker : workers) {
+                worker.exit();
+            }
+        } finally {
+            executor.shutdownNow();
+            workers.forEach(worker -> worker.process.destroy());
+        }
+    }
+
+    private void partition(BlockALSJob job, FastPreferenceData<U, I> data) throws IOException {
+        FastPreferenceData<I, U> transposed = new TransposedPreferenceData<>(data);
+        int ubs = job.blockSize(USERS);
+        int ibs = job.blockSize(ITEMS);
+        for (int b = 0; b < numBlocks; b++) {
+            int u0 = Math.min(job.numUsers, b * ubs);
+            BlockPartition.write(partitionPath(USERS, b), data, u0, u0 + BlockPartition.blockRows(b, ubs, job.numUsers));
+            int i0 = Math.min(job.numItems, b * ibs);
+            BlockPartition.write(partitionPath(ITEMS, b), transposed, i0, i0 + BlockPartition.blockRows(b, ibs, job.numItems));
+        }
+    }
+
+    private Path partitionPath(String side, int block) {
+        return Paths.get(workDir.toAbsolutePath().toString(), side + "." + block + ".prefs");
+    }
+
+    /**
+     * Publishes an initial block, with zero vectors for users without
+     * preferences.
+     */
+    private void publish(BlockALSJob job, String side, int block, DenseFactorMatrix m, FastPreferenceData<U, I> data) throws IOException {
+        int bs = job.blockSize(side);
+        int n = BlockPartition.blockRows(block, bs, m.rows());
+        int K = m.columns();
+
+        DenseFactorMatrix rows = new DenseFactorMatrix(n, K);
+        double[] row = new double[K];
+        for (int r = 0; r < n; r++) {
+            int idx = block * bs + r;
+            if (data.numItems(idx) > 0) {
+                m.getRow(idx, row);
+                rows.setRow(r, row);
+            }
+        }
+        double[] g = rows.gram();
+        DenseFactorMatrix gram = new DenseFactorMatrix(K, K);
+        for (int k = 0; k < K; k++) {
+            System.arraycopy(g, k * K, row, 0, K);
+            gram.setRow(k, row);
+        }
+
+        transport.write(key(side, block), rows);
+        transport.write(gramKey(side, block), gram);
+    }
+
+    private void collect(BlockALSJob job, String side, DenseFactorMatrix m) throws IOException {
+        int bs = job.blockSize(side);
+        double[] row = new double[m.columns()];
+        for (int b = 0; b < numBlocks; b++) {
+            FactorMatrix block = transport.read(key(side, b));
+            for (int r = 0; r < block.rows(); r++) {
+                block.getRow(r, row);
+                m.setRow(b * bs + r, row);
+            }
+        }
+    }
+
+    /**
+     * Runs a half-step. Blocks are assigned statically to workers, so that
+     * each worker keeps the preferences of its blocks in memory.
+     */
+    private void step(String side, List<WorkerProcess> workers, ExecutorService executor) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int w = 0; w < workers.size(); w++) {
+            WorkerProcess worker = workers.get(w);
+            int w0 = w;
+            tasks.add(() -> {
+                for (int b = w0; b < numBlocks; b += workers.size()) {
+                    worker.run(side + " " + b);
+                }
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("worker failed", ex.getCause());
+        }
+    }
+
+    private static class WorkerProcess {
+
+        private final Process process;
+        private final PrintWriter in;
+        private final BufferedReader out;
+
+        public WorkerProcess(Path jobPath) throws IOException {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            this.process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), BlockALSWorker.class.getName(), jobPath.toAbsolutePath().toString())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            this.in = new PrintWriter(new OutputStreamWriter(process.getOutputStream()), true);
+            this.out = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        }
+
+        public void run(String command) throws IOException {
+            in.println(command);
+            String response = out.readLine();
+            if (response == null) {
+                throw new IOException("worker exited during command " + command);
+            } else if (!response.equals("done")) {
+                throw new IOException("worker failed command " + command + ": " + response);
+            }
+        }
+
+        public void exit() {
+            in.println("exit");
+            try {
+                process.waitFor();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.distributed;
+
+import java.io.Serializable;
+
+/**
+ * Configuration of a {@link BlockALSFactorizer} run, sent to the workers.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+class BlockALSJob implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    final int K;
+    final double lambdaP;
+    final double lambdaQ;
+    final double alpha;
+    final int numUsers;
+    final int numItems;
+    final int numBlocks;
+    final String partitionDir;
+    final BlockTransport transport;
+
+    BlockALSJob(int K, double lambdaP, double lambdaQ, double alpha, int numUsers, int numItems, int numBlocks, String partitionDir, BlockTransport transport) {
+        this.K = K;
+        this.lambdaP = lambdaP;
+        this.lambdaQ = lambdaQ;
+        this.alpha = alpha;
+        this.numUsers = numUsers;
+        this.numItems = numItems;
+        this.numBlocks = numBlocks;
+        this.partitionDir = partitionDir;
+        this.transport = transport;
+    }
+
+    int blockSize(String side) {
+        int n = side.equals(BlockALSFactorizer.USERS) ? numUsers : numItems;
+        return Math.max(1, (n + numBlocks - 1) / numBlocks);
+    }
+}
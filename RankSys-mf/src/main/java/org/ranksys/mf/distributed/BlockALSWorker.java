@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.distributed;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import org.ranksys.mf.matrix.DenseFactorMatrix;
+import org.ranksys.mf.matrix.FactorMatrix;
+import org.ranksys.mf.matrix.Kernels;
+
+/**
+ * Worker process of {@link BlockALSFactorizer}. It reads commands from the
+ * standard input, one per line: {@code <side> <block>} solves the
+ * least-squares problems of a block of users (P) or items (Q) against the
+ * published blocks of the other side and publishes the result, {@code exit}
+ * terminates the worker. Each command is answered in the standard output
+ * with {@code done} or {@code error <message>}.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public class BlockALSWorker {
+
+    private static final Logger LOG = Logger.getLogger(BlockALSWorker.class.getName());
+
+    private final BlockALSJob job;
+    private final Map<String, Int2ObjectOpenHashMap<BlockPartition>> partitions;
+
+    BlockALSWorker(BlockALSJob job) {
+        this.job = job;
+        this.partitions = new HashMap<>();
+    }
+
+    /**
+     * Solves a block and publishes it along with its Gram matrix.
+     *
+     * @param side side of the block, P or Q
+     * @param block block number
+     * @throws IOException when IO error
+     */
+    void solve(String side, int block) throws IOException {
+        String fixedSide = side.equals(BlockALSFactorizer.USERS) ? BlockALSFactorizer.ITEMS : BlockALSFactorizer.USERS;
+        double lambda = side.equals(BlockALSFactorizer.USERS) ? job.lambdaP : job.lambdaQ;
+        int K = job.K;
+
+        BlockPartition partition = partitions
+                .computeIfAbsent(side, s -> new Int2ObjectOpenHashMap<>())
+                .get(block);
+        if (partition == null) {
+            partition = BlockPartition.read(Paths.get(job.partitionDir, side + "." + block + ".prefs"));
+            partitions.get(side).put(block, partition);
+        }
+
+        int fixedBlockSize = job.blockSize(fixedSide);
+        FactorMatrix[] fixed = new FactorMatrix[job.numBlocks];
+        double[] A1P = new double[K * K];
+        double[] row = new double[K];
+        for (int b = 0; b < job.numBlocks; b++) {
+            fixed[b] = job.transport.read(BlockALSFactorizer.key(fixedSide, b));
+            FactorMatrix gram = job.transport.read(BlockALSFactorizer.gramKey(fixedSide, b));
+            for (int k = 0; k < K; k++) {
+                gram.getRow(k, row);
+                Kernels.axpy(1.0, row, 0, A1P, k * K, K);
+            }
+        }
+        for (int k = 0; k < K; k++) {
+            A1P[k * K + k] += lambda;
+        }
+
+        BlockPartition prefs = partition;
+        DenseFactorMatrix solved = new DenseFactorMatrix(prefs.rows, K);
+        ThreadLocal<double[][]> buffers = ThreadLocal.withInitial(() -> new double[][]{new double[K * K], new double[K * K], new double[K], new double[K]});
+        IntStream.range(0, prefs.rows).parallel().forEach(r -> {
+            double[][] buffer = buffers.get();
+            double[] A = buffer[0];
+            double[] work = buffer[1];
+            double[] b = buffer[2];
+            double[] qi = buffer[3];
+            System.arraycopy(A1P, 0, A, 0, K * K);
+            Arrays.fill(b, 0.0);
+
+            for (int j = prefs.offsets[r]; j < prefs.offsets[r + 1]; j++) {
+                int idx = prefs.idxs[j];
+                fixed[idx / fixedBlockSize].getRow(idx % fixedBlockSize, qi);
+                double rui = prefs.vs[j];
+                double cui = 1.0 + job.alpha * rui;
+
+                Kernels.syr(cui - 1.0, qi, 0, A, K);
+                Kernels.axpy(rui * cui, qi, 0, b, 0, K);
+            }
+            if (prefs.offsets[r + 1] > prefs.offsets[r]) {
+                Kernels.symmetrize(A, K);
+                Kernels.solveSymmetric(A, b, work, K);
+            }
+            solved.setRow(r, b);
+        });
+
+        double[] g = solved.gram();
+        DenseFactorMatrix gram = new DenseFactorMatrix(K, K);
+        for (int k = 0; k < K; k++) {
+            gram.setRow(k, Arrays.copyOfRange(g, k * K, (k + 1) * K));
+        }
+
+        job.transport.write(BlockALSFactorizer.key(side, block), solved);
+        job.transport.write(BlockALSFactorizer.gramKey(side, block), gram);
+    }
+
+    /**
+     * Runs a worker.
+     *
+     * @param args path of the serialized job
+     * @throws Exception when the job cannot be read
+     */
+    public static void main(String[] args) throws Exception {
+        BlockALSJob job;
+        try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(Paths.get(args[0])))) {
+            job = (BlockALSJob) in.readObject();
+        }
+        BlockALSWorker worker = new BlockALSWorker(job);
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null && !line.equals("exit")) {
+            String[] command = line.split(" ");
+            try {
+                worker.solve(command[0], Integer.parseInt(command[1]));
+                System.out.println("done");
+            } catch (Exception ex) {
+                LOG.log(Level.SEVERE, "failed command " + line, ex);
+                System.out.println("error " + ex);
+            }
+            System.out.flush();
+        }
+    }
+}
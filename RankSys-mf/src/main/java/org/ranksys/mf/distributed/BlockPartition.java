@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.distributed;
+
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Preferences of a block of consecutive users (or items), in compressed
+ * sparse row format with the global indexes of the other side.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+class BlockPartition {
+
+    final int rows;
+    final int[] offsets;
+    final int[] idxs;
+    final double[] vs;
+
+    private BlockPartition(int rows, int[] offsets, int[] idxs, double[] vs) {
+        this.rows = rows;
+        this.offsets = offsets;
+        this.idxs = idxs;
+        this.vs = vs;
+    }
+
+    /**
+     * Rows of a block in a side of n rows partitioned in blocks of the given
+     * size.
+     */
+    static int blockRows(int block, int blockSize, int n) {
+        return Math.max(0, Math.min(blockSize, n - block * blockSize));
+    }
+
+    /**
+     * Writes the preferences of the users (or items) of a block.
+     */
+    static <U, I> void write(Path path, FastPreferenceData<U, I> data, int from, int to) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(to - from);
+            int n = 0;
+            for (int uidx = from; uidx < to; uidx++) {
+                n += data.numItems(uidx);
+            }
+            out.writeInt(n);
+            for (int uidx = from; uidx < to; uidx++) {
+                out.writeInt(data.numItems(uidx));
+                data.getUidxPreferences(uidx).forEach(iv -> {
+                    try {
+                        out.writeInt(iv.idx);
+                        out.writeDouble(iv.v);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Reads the preferences of the users (or items) of a block.
+     */
+    static BlockPartition read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int rows = in.readInt();
+            int n = in.readInt();
+            int[] offsets = new int[rows + 1];
+            int[] idxs = new int[n];
+            double[] vs = new double[n];
+            int j = 0;
+            for (int row = 0; row < rows; row++) {
+                int m = in.readInt();
+                for (int l = 0; l < m; l++) {
+                    idxs[j] = in.readInt();
+                    vs[j] = in.readDouble();
+                    j++;
+                }
+                offsets[row + 1] = j;
+            }
+
+            return new BlockPartition(rows, offsets, idxs, vs);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.distributed;
+
+import java.io.IOException;
+import java.io.Serializable;
+import org.ranksys.mf.matrix.FactorMatrix;
+
+/**
+ * Exchange of factor blocks between the driver and the workers of
+ * {@link BlockALSFactorizer}. A transport is serialized and sent to the
+ * workers, so that all processes see the same blocks.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public interface BlockTransport extends Serializable {
+
+    /**
+     * Publishes a block, replacing any previous block with the same key.
+     * Readers of the previous block are not affected.
+     *
+     * @param key key of the block
+     * @param block factor block
+     * @throws IOException when IO error
+     */
+    public void write(String key, FactorMatrix block) throws IOException;
+
+    /**
+     * Reads a published block.
+     *
+     * @param key key of the block
+     * @return factor block
+     * @throws IOException when IO error
+     */
+    public FactorMatrix read(String key) throws IOException;
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.distributed;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import org.ranksys.mf.matrix.FactorMatrix;
+import org.ranksys.mf.matrix.MappedFactorMatrix;
+
+/**
+ * Transport of factor blocks through memory-mapped files in a shared
+ * directory. Blocks are written to a temporary file that is atomically
+ * renamed, so that processes that mapped the previous version of a block keep
+ * reading it consistently. Readers share the pages of the blocks through the
+ * operating system cache and only load the rows they use.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public class MappedFileTransport implements BlockTransport {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int HEADER_BYTES = 8;
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final String dir;
+
+    /**
+     * Constructor.
+     *
+     * @param dir directory of the block files, shared by all processes
+     */
+    public MappedFileTransport(Path dir) {
+        this.dir = dir.toAbsolutePath().toString();
+    }
+
+    private Path path(String key) {
+        return Paths.get(dir, key + ".bin");
+    }
+
+    @Override
+    public void write(String key, FactorMatrix block) throws IOException {
+        Path path = path(key);
+        Path tmp = Files.createTempFile(path.getParent(), key + ".", ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_BYTES, block.columns() * Double.BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(block.rows());
+            buffer.putInt(block.columns());
+
+            double[] x = new double[block.columns()];
+            for (int row = 0; row < block.rows(); row++) {
+                if (buffer.remaining() < x.length * Double.BYTES) {
+                    flush(channel, buffer);
+                }
+                block.getRow(row, x);
+                for (double v : x) {
+                    buffer.putDouble(v);
+                }
+            }
+            flush(channel, buffer);
+        }
+
+        Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public FactorMatrix read(String key) throws IOException {
+        Path path = path(key);
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("truncated header in " + path);
+                }
+            }
+            header.flip();
+            int rows = header.getInt();
+            int columns = header.getInt();
+            if (channel.size() < HEADER_BYTES + (long) rows * columns * Double.BYTES) {
+                throw new IOException("truncated file: " + path);
+            }
+
+            return new MappedFactorMatrix(channel, HEADER_BYTES, rows, columns, false);
+        }
+    }
+}
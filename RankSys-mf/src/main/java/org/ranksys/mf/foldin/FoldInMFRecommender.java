@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.foldin;
+
+import es.uam.eps.ir.ranksys.core.IdDouble;
+import es.uam.eps.ir.ranksys.core.Recommendation;
+import es.uam.eps.ir.ranksys.core.preference.IdPref;
+import es.uam.eps.ir.ranksys.fast.FastRecommendation;
+import es.uam.eps.ir.ranksys.fast.index.FastItemIndex;
+import es.uam.eps.ir.ranksys.fast.index.FastUserIndex;
+import es.uam.eps.ir.ranksys.fast.utils.topn.IntDoubleTopN;
+import es.uam.eps.ir.ranksys.mf.Factorization;
+import es.uam.eps.ir.ranksys.mf.rec.MFRecommender;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Matrix factorization recommender whose user vectors can be updated after
+ * training. Vectors of new or changed users are folded in with a
+ * {@link UserFoldIn} and take precedence over the rows of the factorization,
+ * which is not modified. Users that are not in the user index can be
+ * recommended by their identifier.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <U> type of the users
+ * @param <I> type of the items
+ */
+public class FoldInMFRecommender<U, I> extends MFRecommender<U, I> {
+
+    private final Factorization<U, I> factorization;
+    private final UserFoldIn<U, I> foldIn;
+    private final Map<U, double[]> folded;
+
+    /**
+     * Constructor.
+     *
+     * @param uIndex fast user index
+     * @param iIndex fast item index
+     * @param factorization matrix factorization
+     * @param foldIn fold-in of users into the factorization
+     */
+    public FoldInMFRecommender(FastUserIndex<U> uIndex, FastItemIndex<I> iIndex, Factorization<U, I> factorization, UserFoldIn<U, I> foldIn) {
+        super(uIndex, iIndex, factorization);
+        this.factorization = factorization;
+        this.foldIn = foldIn;
+        this.folded = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Folds in a user, replacing the previous vector of the user.
+     *
+     * @param u user
+     * @param prefs all the preferences of the user
+     */
+    public void update(U u, Stream<? extends IdPref<I>> prefs) {
+        folded.put(u, foldIn.foldInItems(prefs));
+    }
+
+    /**
+     * Discards the folded in vector of a user, if any.
+     *
+     * @param u user
+     */
+    public void remove(U u) {
+        folded.remove(u);
+    }
+
+    /**
+     * Returns the vector of a user, either folded in or from the
+     * factorization.
+     *
+     * @param u user
+     * @return vector of the user, null if unknown
+     */
+    public double[] getUserVector(U u) {
+        double[] pu = folded.get(u);
+        if (pu == null) {
+            int fuidx = factorization.user2uidx(u);
+            if (fuidx >= 0) {
+                pu = new double[factorization.getK()];
+                factorization.getUserFactors().getRow(fuidx, pu);
+            }
+        }
+
+        return pu;
+    }
+
+    @Override
+    protected double[] getUserVector(int uidx) {
+        double[] pu = folded.get(uidx2user(uidx));
+        if (pu == null) {
+            pu = super.getUserVector(uidx);
+        }
+
+        return pu;
+    }
+
+    @Override
+    public Recommendation<U, I> getRecommendation(U u, int maxLength, Predicate<I> filter) {
+        if (user2uidx(u) >= 0) {
+            return super.getRecommendation(u, maxLength, filter);
+        }
+
+        double[] pu = getUserVector(u);
+        List<IdDouble<I>> items;
+        if (pu == null) {
+            items = new ArrayList<>();
+        } else {
+            items = getRecommendation(pu, maxLength, iidx -> filter.test(iidx2item(iidx))).stream()
+                    .map(iv -> new IdDouble<>(iidx2item(iv.idx), iv.v))
+                    .collect(Collectors.toList());
+        }
+
+        return new Recommendation<>(u, items);
+    }
+
+    @Override
+    public Recommendation<U, I> getRecommendation(U u, Stream<I> candidates) {
+        if (user2uidx(u) >= 0) {
+            return super.getRecommendation(u, candidates);
+        }
+
+        Set<I> set = candidates.collect(Collectors.toCollection(() -> new HashSet<>()));
+        double[] pu = getUserVector(u);
+        List<IdDouble<I>> items = new ArrayList<>();
+        if (pu != null) {
+            IntDoubleTopN topN = getCandidateTopN(pu, set.stream().mapToInt(i -> item2iidx(i)));
+            topN.sort();
+            for (int j = topN.size() - 1; j >= 0; j--) {
+                items.add(new IdDouble<>(iidx2item(topN.getIntAt(j)), topN.getDoubleAt(j)));
+            }
+        }
+        items.forEach(is -> set.remove(is.id));
+        set.stream().sorted().forEach(i -> items.add(new IdDouble<>(i, Double.NaN)));
+
+        return new Recommendation<>(u, items);
+    }
+
+    @Override
+    public List<FastRecommendation> getRecommendations(int[] uidxs, int maxLength, List<IntPredicate> filters) {
+        if (folded.isEmpty()) {
+            return super.getRecommendations(uidxs, maxLength, filters);
+        }
+
+        return IntStream.range(0, uidxs.length)
+                .mapToObj(j -> getRecommendation(uidxs[j], maxLength, filters.get(j)))
+                .collect(Collectors.toList());
+    }
+}
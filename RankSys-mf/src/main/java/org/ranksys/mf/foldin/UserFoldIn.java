@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.foldin;
+
+import es.uam.eps.ir.ranksys.core.preference.IdPref;
+import es.uam.eps.ir.ranksys.fast.preference.IdxPref;
+import es.uam.eps.ir.ranksys.mf.Factorization;
+import java.util.Arrays;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.Stream;
+import org.ranksys.mf.matrix.FactorMatrix;
+import org.ranksys.mf.matrix.Kernels;
+
+/**
+ * Fold-in of users into an existing implicit feedback factorization. The
+ * vector of a user is the solution of the user's least-squares problem against the
+ * fixed item matrix, that is, the user half-step of
+ * {@link es.uam.eps.ir.ranksys.mf.als.HKVFactorizer}, which optimizes the same
+ * objective as {@link es.uam.eps.ir.ranksys.mf.als.PZTFactorizer}. The Gram
+ * matrix Q^t Q is calculated once, so that folding in a user with n
+ * preferences costs O(n K^2 + K^3).
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <U> type of the users
+ * @param <I> type of the items
+ */
+public class UserFoldIn<U, I> {
+
+    private final Factorization<U, I> factorization;
+    private final DoubleUnaryOperator confidence;
+    private final double[] A1P;
+    private final ThreadLocal<double[][]> buffers;
+
+    /**
+     * Constructor. If the item matrix of the factorization changes, a new
+     * instance has to be created.
+     *
+     * @param factorization factorization whose item matrix is used
+     * @param lambda regularization factor of the user vectors
+     * @param confidence confidence function of the factorization
+     */
+    public UserFoldIn(Factorization<U, I> factorization, double lambda, DoubleUnaryOperator confidence) {
+        this.factorization = factorization;
+        this.confidence = confidence;
+
+        int K = factorization.getK();
+        this.A1P = factorization.getItemFactors().gram();
+        for (int k = 0; k < K; k++) {
+            A1P[k * K + k] += lambda;
+        }
+        this.buffers = ThreadLocal.withInitial(() -> new double[][]{new double[K * K], new double[K * K], new double[K], new double[K]});
+    }
+
+    /**
+     * Calculates the vector of a user from a set of preferences.
+     *
+     * @param prefs preferences of the user, with item indexes of the
+     * factorization
+     * @return user vector
+     */
+    public double[] foldIn(Stream<? extends IdxPref> prefs) {
+        int K = factorization.getK();
+        FactorMatrix q = factorization.getItemFactors();
+
+        double[][] buffer = buffers.get();
+        double[] A = buffer[0];
+        double[] work = buffer[1];
+        double[] b = buffer[2];
+        double[] qi = buffer[3];
+        System.arraycopy(A1P, 0, A, 0, K * K);
+        Arrays.fill(b, 0.0);
+
+        prefs.filter(iv -> iv.idx >= 0).forEach(iv -> {
+            q.getRow(iv.idx, qi);
+            double rui = iv.v;
+            double cui = confidence.applyAsDouble(rui);
+
+            Kernels.syr(cui - 1.0, qi, 0, A, K);
+            Kernels.axpy(rui * cui, qi, 0, b, 0, K);
+        });
+        Kernels.symmetrize(A, K);
+        Kernels.solveSymmetric(A, b, work, K);
+
+        return Arrays.copyOf(b, K);
+    }
+
+    /**
+     * Calculates the vector of a user from a set of preferences. Items that are
+     * not in the factorization are ignored.
+     *
+     * @param prefs preferences of the user
+     * @return user vector
+     */
+    public double[] foldInItems(Stream<? extends IdPref<I>> prefs) {
+        return foldIn(prefs.map(iv -> new IdxPref(factorization.item2iidx(iv.id), iv.v)));
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.matrix;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+import java.util.Arrays;
+import java.util.function.DoubleSupplier;
+import static java.util.stream.IntStream.range;
+
+/**
+ * Mutable factor matrix stored in a flat double array in row-major order.
+ * Rows are padded to a multiple of four values so that every row starts at
+ * the same alignment.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public class DenseFactorMatrix extends FactorMatrix {
+
+    private static final int GRAM_CHUNK = 1024;
+
+    private final double[] data;
+    private final int stride;
+
+    /**
+     * Constructor of a matrix of zeros.
+     *
+     * @param rows number of rows
+     * @param columns number of columns
+     */
+    public DenseFactorMatrix(int rows, int columns) {
+        this(rows, columns, (columns + 3) & ~3);
+    }
+
+    /**
+     * Constructor of a matrix of zeros with a given row stride.
+     *
+     * @param rows number of rows
+     * @param columns number of columns
+     * @param stride distance between the beginnings of consecutive rows
+     */
+    public DenseFactorMatrix(int rows, int columns, int stride) {
+        super(rows, columns);
+        if (stride < columns) {
+            throw new IllegalArgumentException("stride smaller than the number of columns");
+        }
+        this.stride = stride;
+        this.data = new double[Math.multiplyExact(rows, stride)];
+    }
+
+    /**
+     * Returns the underlying array.
+     *
+     * @return array of values
+     */
+    public double[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns the distance between the beginnings of consecutive rows.
+     *
+     * @return row stride
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Returns the position of the beginning of a row in the underlying array.
+     *
+     * @param row row index
+     * @return offset of the row
+     */
+    public int offset(int row) {
+        return row * stride;
+    }
+
+    @Override
+    public double get(int row, int k) {
+        return data[row * stride + k];
+    }
+
+    /**
+     * Sets the value of a cell.
+     *
+     * @param row row index
+     * @param k column index
+     * @param v value
+     */
+    public void set(int row, int k, double v) {
+        data[row * stride + k] = v;
+    }
+
+    /**
+     * Adds a value to a cell.
+     *
+     * @param row row index
+     * @param k column index
+     * @param v value to be added
+     */
+    public void add(int row, int k, double v) {
+        data[row * stride + k] += v;
+    }
+
+    @Override
+    public void getRow(int row, double[] dst) {
+        System.arraycopy(data, row * stride, dst, 0, columns);
+    }
+
+    /**
+     * Copies an array into a row.
+     *
+     * @param row row index
+     * @param src source array of length at least the number of columns
+     */
+    public void setRow(int row, double[] src) {
+        System.arraycopy(src, 0, data, row * stride, columns);
+    }
+
+    /**
+     * Sets all the cells of a row to a value.
+     *
+     * @param row row index
+     * @param v value
+     */
+    public void fillRow(int row, double v) {
+        Arrays.fill(data, row * stride, row * stride + columns, v);
+    }
+
+    /**
+     * Sets all the cells of the matrix to a value.
+     *
+     * @param v value
+     */
+    public void fill(double v) {
+        for (int row = 0; row < rows; row++) {
+            fillRow(row, v);
+        }
+    }
+
+    /**
+     * Sets the cells of the matrix to the values of a supplier, row by row.
+     *
+     * @param supplier supplier of values
+     */
+    public void assign(DoubleSupplier supplier) {
+        for (int row = 0; row < rows; row++) {
+            int offset = row * stride;
+            for (int k = 0; k < columns; k++) {
+                data[offset + k] = supplier.getAsDouble();
+            }
+        }
+    }
+
+    /**
+     * Multiplies all the cells of a column by a value.
+     *
+     * @param k column index
+     * @param a scale factor
+     */
+    public void scaleColumn(int k, double a) {
+        for (int row = 0; row < rows; row++) {
+            data[row * stride + k] *= a;
+        }
+    }
+
+    /**
+     * Returns the sum of the cells of a column.
+     *
+     * @param k column index
+     * @return sum of the column
+     */
+    public double sumColumn(int k) {
+        double s = 0.0;
+        for (int row = 0; row < rows; row++) {
+            s += data[row * stride + k];
+        }
+        return s;
+    }
+
+    /**
+     * Multiplies all the cells of the matrix by a value.
+     *
+     * @param a scale factor
+     */
+    public void scale(double a) {
+        for (int row = 0; row < rows; row++) {
+            int offset = row * stride;
+            for (int k = 0; k < columns; k++) {
+                data[offset + k] *= a;
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of all the cells of the matrix.
+     *
+     * @return sum of the matrix
+     */
+    public double sum() {
+        double s = 0.0;
+        for (int row = 0; row < rows; row++) {
+            int offset = row * stride;
+            for (int k = 0; k < columns; k++) {
+                s += data[offset + k];
+            }
+        }
+        return s;
+    }
+
+    @Override
+    public double dot(int row, double[] x) {
+        return Kernels.dot(data, row * stride, x, 0, columns);
+    }
+
+    @Override
+    public void mult(double[] x, double[] y) {
+        for (int row = 0; row < rows; row++) {
+            y[row] = Kernels.dot(data, row * stride, x, 0, columns);
+        }
+    }
+
+    /**
+     * Calculates the Gram matrix M^t M in parallel.
+     *
+     * @return K×K matrix in row-major order
+     */
+    @Override
+    public double[] gram() {
+        int K = columns;
+        int chunks = (rows + GRAM_CHUNK - 1) / GRAM_CHUNK;
+        double[] g = range(0, chunks).parallel().mapToObj(c -> {
+            double[] gc = new double[K * K];
+            int r1 = Math.min(rows, (c + 1) * GRAM_CHUNK);
+            for (int row = c * GRAM_CHUNK; row < r1; row++) {
+                Kernels.syr(1.0, data, row * stride, gc, K);
+            }
+            return gc;
+        }).reduce(new double[K * K], (g1, g2) -> {
+            double[] s = new double[K * K];
+            for (int i = 0; i < s.length; i++) {
+                s[i] = g1[i] + g2[i];
+            }
+            return s;
+        });
+        Kernels.symmetrize(g, K);
+        return g;
+    }
+
+    /**
+     * Returns a Colt view of this matrix that shares the underlying array.
+     *
+     * @return Colt matrix
+     */
+    @Override
+    public DenseDoubleMatrix2D toColt() {
+        return new ColtView(this);
+    }
+
+    /**
+     * Returns a Colt view of a row of this matrix that shares the underlying
+     * array.
+     *
+     * @param row row index
+     * @return Colt vector
+     */
+    @Override
+    public DoubleMatrix1D toColt(int row) {
+        return toColt().viewRow(row);
+    }
+
+    @Override
+    public DenseFactorMatrix asDense() {
+        return this;
+    }
+
+    private static class ColtView extends DenseDoubleMatrix2D {
+
+        private static final long serialVersionUID = 1L;
+
+        public ColtView(DenseFactorMatrix m) {
+            super(m.rows, m.columns, m.data, 0, 0, m.stride, 1);
+        }
+    }
+}
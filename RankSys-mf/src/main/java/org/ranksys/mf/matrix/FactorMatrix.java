@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.matrix;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.impl.DenseDoubleMatrix1D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+
+/**
+ * Matrix of latent factors, one row per user or item. This class provides
+ * the read operations required to calculate scores; the storage is decided by
+ * the subclasses.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public abstract class FactorMatrix {
+
+    /**
+     * Number of rows.
+     */
+    protected final int rows;
+
+    /**
+     * Number of columns, i.e., dimension of the latent space.
+     */
+    protected final int columns;
+
+    /**
+     * Constructor.
+     *
+     * @param rows number of rows
+     * @param columns number of columns
+     */
+    protected FactorMatrix(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return number of rows
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return number of columns
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * Returns the value of a cell.
+     *
+     * @param row row index
+     * @param k column index
+     * @return value of the cell
+     */
+    public abstract double get(int row, int k);
+
+    /**
+     * Copies a row into an array.
+     *
+     * @param row row index
+     * @param dst destination array of length at least the number of columns
+     */
+    public void getRow(int row, double[] dst) {
+        for (int k = 0; k < columns; k++) {
+            dst[k] = get(row, k);
+        }
+    }
+
+    /**
+     * Inner product of a row with a vector.
+     *
+     * @param row row index
+     * @param x vector
+     * @return inner product
+     */
+    public double dot(int row, double[] x) {
+        double s = 0.0;
+        for (int k = 0; k < columns; k++) {
+            s += get(row, k) * x[k];
+        }
+        return s;
+    }
+
+    /**
+     * Product of the matrix with a vector: y = M x.
+     *
+     * @param x vector of length the number of columns
+     * @param y result vector of length the number of rows
+     */
+    public void mult(double[] x, double[] y) {
+        for (int row = 0; row < rows; row++) {
+            y[row] = dot(row, x);
+        }
+    }
+
+    /**
+     * Calculates the Gram matrix M^t M.
+     *
+     * @return K×K matrix in row-major order
+     */
+    public double[] gram() {
+        int K = columns;
+        double[] g = new double[K * K];
+        double[] x = new double[K];
+        for (int row = 0; row < rows; row++) {
+            getRow(row, x);
+            Kernels.syr(1.0, x, 0, g, K);
+        }
+        Kernels.symmetrize(g, K);
+        return g;
+    }
+
+    /**
+     * Returns the matrix as a Colt matrix. The default implementation copies
+     * the values.
+     *
+     * @return Colt matrix
+     */
+    public DenseDoubleMatrix2D toColt() {
+        DenseDoubleMatrix2D m = new DenseDoubleMatrix2D(rows, columns);
+        for (int row = 0; row < rows; row++) {
+            for (int k = 0; k < columns; k++) {
+                m.setQuick(row, k, get(row, k));
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Returns a row of the matrix as a Colt vector. The default
+     * implementation copies the values.
+     *
+     * @param row row index
+     * @return Colt vector
+     */
+    public DoubleMatrix1D toColt(int row) {
+        double[] x = new double[columns];
+        getRow(row, x);
+        return new DenseDoubleMatrix1D(x);
+    }
+
+    /**
+     * Returns this matrix as a mutable dense matrix, required to calculate a
+     * factorization.
+     *
+     * @return this matrix as a dense matrix
+     * @throws UnsupportedOperationException if the matrix is read-only
+     */
+    public DenseFactorMatrix asDense() {
+        throw new UnsupportedOperationException("read-only factor matrix");
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.matrix;
+
+/**
+ * Read-only factor matrix stored in single precision, for serving. It takes
+ * half the memory of a {@link DenseFactorMatrix}; inner products widen the
+ * values and accumulate in double precision.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public class FloatFactorMatrix extends FactorMatrix {
+
+    private final float[] data;
+
+    /**
+     * Constructor that rounds the values of a matrix to single precision.
+     *
+     * @param matrix matrix to be copied
+     */
+    public FloatFactorMatrix(FactorMatrix matrix) {
+        super(matrix.rows(), matrix.columns());
+        this.data = new float[Math.multiplyExact(rows, columns)];
+
+        double[] x = new double[columns];
+        for (int row = 0; row < rows; row++) {
+            matrix.getRow(row, x);
+            for (int k = 0; k < columns; k++) {
+                data[row * columns + k] = (float) x[k];
+            }
+        }
+    }
+
+    @Override
+    public double get(int row, int k) {
+        return data[row * columns + k];
+    }
+
+    @Override
+    public void getRow(int row, double[] dst) {
+        int o = row * columns;
+        for (int k = 0; k < columns; k++) {
+            dst[k] = data[o + k];
+        }
+    }
+
+    @Override
+    public double dot(int row, double[] x) {
+        int o = row * columns;
+        double s0 = 0.0;
+        double s1 = 0.0;
+        double s2 = 0.0;
+        double s3 = 0.0;
+        int k = 0;
+        for (; k + 3 < columns; k += 4) {
+            s0 += data[o + k] * x[k];
+            s1 += data[o + k + 1] * x[k + 1];
+            s2 += data[o + k + 2] * x[k + 2];
+            s3 += data[o + k + 3] * x[k + 3];
+        }
+        for (; k < columns; k++) {
+            s0 += data[o + k] * x[k];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.matrix;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.sqrt;
+
+/**
+ * Linear algebra kernels on flat arrays. Vectors are given by an array and an
+ * offset; n×n matrices are stored in row-major order.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public class Kernels {
+
+    /**
+     * Inner product of two vectors.
+     *
+     * @param x first array
+     * @param xo offset of the first vector
+     * @param y second array
+     * @param yo offset of the second vector
+     * @param n length of the vectors
+     * @return inner product
+     */
+    public static double dot(double[] x, int xo, double[] y, int yo, int n) {
+        double s0 = 0.0;
+        double s1 = 0.0;
+        double s2 = 0.0;
+        double s3 = 0.0;
+        int k = 0;
+        for (; k + 3 < n; k += 4) {
+            s0 += x[xo + k] * y[yo + k];
+            s1 += x[xo + k + 1] * y[yo + k + 1];
+            s2 += x[xo + k + 2] * y[yo + k + 2];
+            s3 += x[xo + k + 3] * y[yo + k + 3];
+        }
+        for (; k < n; k++) {
+            s0 += x[xo + k] * y[yo + k];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Adds a scaled vector to another: y += a x.
+     *
+     * @param a scale factor
+     * @param x array of the vector to be added
+     * @param xo offset of the vector to be added
+     * @param y array of the updated vector
+     * @param yo offset of the updated vector
+     * @param n length of the vectors
+     */
+    public static void axpy(double a, double[] x, int xo, double[] y, int yo, int n) {
+        for (int k = 0; k < n; k++) {
+            y[yo + k] += a * x[xo + k];
+        }
+    }
+
+    /**
+     * Inner products of the rows of two matrices: C = A B^t. Two rows of A
+     * are multiplied at once with every row of B, which halves the loads of
+     * B. Each product is accumulated in the same order as
+     * {@link #dot(double[], int, double[], int, int)}, so that results are
+     * identical.
+     *
+     * @param a array of matrix A
+     * @param ao offset of the first row of A
+     * @param lda distance between rows of A
+     * @param m number of rows of A
+     * @param b array of matrix B
+     * @param bo offset of the first row of B
+     * @param ldb distance between rows of B
+     * @param n number of rows of B
+     * @param K number of columns of A and B
+     * @param c array of the m×n result matrix
+     * @param co offset of the first row of C
+     * @param ldc distance between rows of C
+     */
+    public static void gemmNT(double[] a, int ao, int lda, int m, double[] b, int bo, int ldb, int n, int K, double[] c, int co, int ldc) {
+        for (int j = 0; j < n; j++) {
+            int bj = bo + j * ldb;
+            int i = 0;
+            for (; i + 1 < m; i += 2) {
+                int a0 = ao + i * lda;
+                int a1 = a0 + lda;
+                double s00 = 0.0;
+                double s01 = 0.0;
+                double s02 = 0.0;
+                double s03 = 0.0;
+                double s10 = 0.0;
+                double s11 = 0.0;
+                double s12 = 0.0;
+                double s13 = 0.0;
+                int k = 0;
+                for (; k + 3 < K; k += 4) {
+                    double b0 = b[bj + k];
+                    double b1 = b[bj + k + 1];
+                    double b2 = b[bj + k + 2];
+                    double b3 = b[bj + k + 3];
+                    s00 += a[a0 + k] * b0;
+                    s01 += a[a0 + k + 1] * b1;
+                    s02 += a[a0 + k + 2] * b2;
+                    s03 += a[a0 + k + 3] * b3;
+                    s10 += a[a1 + k] * b0;
+                    s11 += a[a1 + k + 1] * b1;
+                    s12 += a[a1 + k + 2] * b2;
+                    s13 += a[a1 + k + 3] * b3;
+                }
+                for (; k < K; k++) {
+                    s00 += a[a0 + k] * b[bj + k];
+                    s10 += a[a1 + k] * b[bj + k];
+                }
+                c[co + i * ldc + j] = (s00 + s01) + (s02 + s03);
+                c[co + (i + 1) * ldc + j] = (s10 + s11) + (s12 + s13);
+            }
+            if (i < m) {
+                c[co + i * ldc + j] = dot(a, ao + i * lda, b, bj, K);
+            }
+        }
+    }
+
+    /**
+     * Symmetric rank-one update of the upper triangle of a matrix:
+     * A += a x x^t. See {@link #symmetrize(double[], int)}.
+     *
+     * @param a scale factor
+     * @param x array of the vector
+     * @param xo offset of the vector
+     * @param A n×n matrix
+     * @param n length of the vector
+     */
+    public static void syr(double a, double[] x, int xo, double[] A, int n) {
+        for (int i = 0; i < n; i++) {
+            double axi = a * x[xo + i];
+            if (axi != 0.0) {
+                int row = i * n;
+                for (int j = i; j < n; j++) {
+                    A[row + j] += axi * x[xo + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the upper triangle of a matrix into the lower one.
+     *
+     * @param A n×n matrix
+     * @param n number of rows and columns
+     */
+    public static void symmetrize(double[] A, int n) {
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                A[j * n + i] = A[i * n + j];
+            }
+        }
+    }
+
+    /**
+     * Matrix-vector product of a square matrix: y = A x.
+     *
+     * @param A n×n matrix
+     * @param x vector
+     * @param y result vector
+     * @param n number of rows and columns
+     */
+    public static void gemv(double[] A, double[] x, double[] y, int n) {
+        for (int i = 0; i < n; i++) {
+            y[i] = dot(A, i * n, x, 0, n);
+        }
+    }
+
+    /**
+     * In-place Cholesky decomposition A = L L^t of a symmetric positive
+     * definite matrix. On success, the lower triangle of A contains L.
+     *
+     * @param A n×n matrix
+     * @param n number of rows and columns
+     * @return false if the matrix is not positive definite, true otherwise
+     */
+    public static boolean cholesky(double[] A, int n) {
+        for (int j = 0; j < n; j++) {
+            int rj = j * n;
+            double d = A[rj + j] - dot(A, rj, A, rj, j);
+            if (!(d > 0.0)) {
+                return false;
+            }
+            double ljj = sqrt(d);
+            A[rj + j] = ljj;
+            for (int i = j + 1; i < n; i++) {
+                int ri = i * n;
+                A[ri + j] = (A[ri + j] - dot(A, ri, A, rj, j)) / ljj;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Solves L L^t x = b in-place given a Cholesky decomposition.
+     *
+     * @param L n×n matrix whose lower triangle contains the decomposition
+     * @param b right-hand side, replaced by the solution
+     * @param n number of rows and columns
+     */
+    public static void choleskySolve(double[] L, double[] b, int n) {
+        for (int i = 0; i < n; i++) {
+            b[i] = (b[i] - dot(L, i * n, b, 0, i)) / L[i * n + i];
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double s = b[i];
+            for (int j = i + 1; j < n; j++) {
+                s -= L[j * n + i] * b[j];
+            }
+            b[i] = s / L[i * n + i];
+        }
+    }
+
+    /**
+     * Solves A x = b in-place by LU decomposition with partial pivoting. A is
+     * overwritten.
+     *
+     * @param A n×n matrix
+     * @param b right-hand side, replaced by the solution
+     * @param n number of rows and columns
+     */
+    public static void luSolve(double[] A, double[] b, int n) {
+        for (int j = 0; j < n; j++) {
+            int p = j;
+            for (int i = j + 1; i < n; i++) {
+                if (abs(A[i * n + j]) > abs(A[p * n + j])) {
+                    p = i;
+                }
+            }
+            if (p != j) {
+                for (int k = 0; k < n; k++) {
+                    double t = A[j * n + k];
+                    A[j * n + k] = A[p * n + k];
+                    A[p * n + k] = t;
+                }
+                double t = b[j];
+                b[j] = b[p];
+                b[p] = t;
+            }
+            double ajj = A[j * n + j];
+            if (ajj == 0.0) {
+                continue;
+            }
+            for (int i = j + 1; i < n; i++) {
+                double f = A[i * n + j] / ajj;
+                if (f != 0.0) {
+                    axpy(-f, A, j * n + j, A, i * n + j, n - j);
+                    b[i] -= f * b[j];
+                }
+            }
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double aii = A[i * n + i];
+            double s = b[i] - dot(A, i * n + i + 1, b, i + 1, n - i - 1);
+            b[i] = aii == 0.0 ? 0.0 : s / aii;
+        }
+    }
+
+    /**
+     * Solves A x = b in-place for a symmetric matrix, by Cholesky
+     * decomposition if A is positive definite and by LU decomposition
+     * otherwise.
+     *
+     * @param A n×n matrix, overwritten
+     * @param b right-hand side, replaced by the solution
+     * @param work n×n working array
+     * @param n number of rows and columns
+     */
+    public static void solveSymmetric(double[] A, double[] b, double[] work, int n) {
+        System.arraycopy(A, 0, work, 0, n * n);
+        if (cholesky(work, n)) {
+            choleskySolve(work, b, n);
+        } else {
+            luSolve(A, b, n);
+        }
+    }
+
+    /**
+     * Solves x L^t = y in-place for a row vector, that is, L x^t = y^t, given
+     * a lower triangular matrix.
+     *
+     * @param L n×n matrix whose lower triangle is used
+     * @param y array of the row vector, replaced by the solution
+     * @param yo offset of the row vector
+     * @param n number of rows and columns
+     */
+    public static void forwardSolve(double[] L, double[] y, int yo, int n) {
+        for (int i = 0; i < n; i++) {
+            y[yo + i] = (y[yo + i] - dot(L, i * n, y, yo, i)) / L[i * n + i];
+        }
+    }
+
+    /**
+     * Eigendecomposition A = V diag(d) V^t of a symmetric matrix by the
+     * cyclic Jacobi method, which is accurate and fast enough for small
+     * matrices. Eigenvalues are sorted in decreasing order.
+     *
+     * @param A n×n symmetric matrix, overwritten
+     * @param V n×n matrix whose columns are replaced by the eigenvectors
+     * @param d array replaced by the eigenvalues
+     * @param n number of rows and columns
+     */
+    public static void symmetricEigen(double[] A, double[] V, double[] d, int n) {
+        for (int i = 0; i < n * n; i++) {
+            V[i] = 0.0;
+        }
+        for (int i = 0; i < n; i++) {
+            V[i * n + i] = 1.0;
+        }
+
+        double norm = 0.0;
+        for (int i = 0; i < n * n; i++) {
+            norm += A[i] * A[i];
+        }
+        for (int sweep = 0; sweep < 100; sweep++) {
+            double off = 0.0;
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    off += A[p * n + q] * A[p * n + q];
+                }
+            }
+            if (off <= 1e-30 * norm) {
+                break;
+            }
+
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    double apq = A[p * n + q];
+                    if (apq == 0.0) {
+                        continue;
+                    }
+                    double theta = (A[q * n + q] - A[p * n + p]) / (2 * apq);
+                    double t = (theta >= 0 ? 1.0 : -1.0) / (abs(theta) + sqrt(theta * theta + 1.0));
+                    double c = 1.0 / sqrt(t * t + 1.0);
+                    double s = t * c;
+
+                    for (int k = 0; k < n; k++) {
+                        double akp = A[k * n + p];
+                        double akq = A[k * n + q];
+                        A[k * n + p] = c * akp - s * akq;
+                        A[k * n + q] = s * akp + c * akq;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double apk = A[p * n + k];
+                        double aqk = A[q * n + k];
+                        A[p * n + k] = c * apk - s * aqk;
+                        A[q * n + k] = s * apk + c * aqk;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double vkp = V[k * n + p];
+                        double vkq = V[k * n + q];
+                        V[k * n + p] = c * vkp - s * vkq;
+                        V[k * n + q] = s * vkp + c * vkq;
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            d[i] = A[i * n + i];
+        }
+        for (int i = 0; i < n; i++) {
+            int m = i;
+            for (int j = i + 1; j < n; j++) {
+                if (d[j] > d[m]) {
+                    m = j;
+                }
+            }
+            if (m != i) {
+                double t = d[i];
+                d[i] = d[m];
+                d[m] = t;
+                for (int k = 0; k < n; k++) {
+                    t = V[k * n + i];
+                    V[k * n + i] = V[k * n + m];
+                    V[k * n + m] = t;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.matrix;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+
+/**
+ * Read-only factor matrix memory-mapped from a file with little-endian rows
+ * of double or single precision values. Since a mapped buffer cannot exceed
+ * 2GB, the matrix is mapped in several chunks of whole rows. The pages of the
+ * file are managed by the operating system and shared among processes that
+ * map the same file.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public class MappedFactorMatrix extends FactorMatrix {
+
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    private final DoubleBuffer[] doubleChunks;
+    private final FloatBuffer[] floatChunks;
+    private final int chunkShift;
+    private final int chunkMask;
+
+    /**
+     * Constructor.
+     *
+     * @param channel file channel, which can be closed after construction
+     * @param position position in the file of the first row
+     * @param rows number of rows
+     * @param columns number of columns
+     * @param singlePrecision true if values are stored as floats, false if
+     * stored as doubles
+     * @throws IOException when IO error
+     */
+    public MappedFactorMatrix(FileChannel channel, long position, int rows, int columns, boolean singlePrecision) throws IOException {
+        super(rows, columns);
+
+        long rowBytes = (long) columns * (singlePrecision ? Float.BYTES : Double.BYTES);
+        int chunkRows = Integer.highestOneBit((int) Math.max(1, Math.min(Integer.MAX_VALUE, MAX_CHUNK_BYTES / Math.max(1, rowBytes))));
+        int numChunks = (int) (((long) rows + chunkRows - 1) / chunkRows);
+
+        this.chunkShift = Integer.numberOfTrailingZeros(chunkRows);
+        this.chunkMask = chunkRows - 1;
+        this.doubleChunks = singlePrecision ? null : new DoubleBuffer[numChunks];
+        this.floatChunks = singlePrecision ? new FloatBuffer[numChunks] : null;
+
+        for (int c = 0; c < numChunks; c++) {
+            int n = Math.min(chunkRows, rows - c * chunkRows);
+            MappedByteBuffer buffer = channel.map(READ_ONLY, position + c * chunkRows * rowBytes, n * rowBytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (singlePrecision) {
+                floatChunks[c] = buffer.asFloatBuffer();
+            } else {
+                doubleChunks[c] = buffer.asDoubleBuffer();
+            }
+        }
+    }
+
+    /**
+     * Returns whether the values are stored in single precision.
+     *
+     * @return true if values are floats, false if doubles
+     */
+    public boolean isSinglePrecision() {
+        return floatChunks != null;
+    }
+
+    @Override
+    public double get(int row, int k) {
+        int i = (row & chunkMask) * columns + k;
+        if (doubleChunks != null) {
+            return doubleChunks[row >>> chunkShift].get(i);
+        } else {
+            return floatChunks[row >>> chunkShift].get(i);
+        }
+    }
+
+    @Override
+    public void getRow(int row, double[] dst) {
+        int o = (row & chunkMask) * columns;
+        if (doubleChunks != null) {
+            DoubleBuffer b = doubleChunks[row >>> chunkShift];
+            for (int k = 0; k < columns; k++) {
+                dst[k] = b.get(o + k);
+            }
+        } else {
+            FloatBuffer b = floatChunks[row >>> chunkShift];
+            for (int k = 0; k < columns; k++) {
+                dst[k] = b.get(o + k);
+            }
+        }
+    }
+
+    @Override
+    public double dot(int row, double[] x) {
+        int o = (row & chunkMask) * columns;
+        double s = 0.0;
+        if (doubleChunks != null) {
+            DoubleBuffer b = doubleChunks[row >>> chunkShift];
+            for (int k = 0; k < columns; k++) {
+                s += b.get(o + k) * x[k];
+            }
+        } else {
+            FloatBuffer b = floatChunks[row >>> chunkShift];
+            for (int k = 0; k < columns; k++) {
+                s += b.get(o + k) * x[k];
+            }
+        }
+        return s;
+    }
+}
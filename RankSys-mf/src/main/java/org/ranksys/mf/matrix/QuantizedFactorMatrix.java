@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.matrix;
+
+/**
+ * Read-only factor matrix quantized to 8-bit integers with a scale per row,
+ * for serving. Each row takes K + 4 bytes instead of 8 K; the quantization
+ * error of a value is at most half the scale of its row, that is, the
+ * maximum absolute value of the row over 254.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public class QuantizedFactorMatrix extends FactorMatrix {
+
+    private static final int MAX_INT_COLUMNS = 512;
+
+    private final byte[] data;
+    private final float[] scales;
+
+    /**
+     * Constructor that quantizes the values of a matrix.
+     *
+     * @param matrix matrix to be copied
+     */
+    public QuantizedFactorMatrix(FactorMatrix matrix) {
+        super(matrix.rows(), matrix.columns());
+        this.data = new byte[Math.multiplyExact(rows, columns)];
+        this.scales = new float[rows];
+
+        double[] x = new double[columns];
+        for (int row = 0; row < rows; row++) {
+            matrix.getRow(row, x);
+            double max = 0.0;
+            for (int k = 0; k < columns; k++) {
+                max = Math.max(max, Math.abs(x[k]));
+            }
+            float scale = (float) (max / 127);
+            scales[row] = scale;
+            if (scale > 0) {
+                for (int k = 0; k < columns; k++) {
+                    data[row * columns + k] = (byte) Math.max(-127, Math.min(127, Math.round(x[k] / scale)));
+                }
+            }
+        }
+    }
+
+    @Override
+    public double get(int row, int k) {
+        return data[row * columns + k] * (double) scales[row];
+    }
+
+    @Override
+    public void getRow(int row, double[] dst) {
+        int o = row * columns;
+        double scale = scales[row];
+        for (int k = 0; k < columns; k++) {
+            dst[k] = data[o + k] * scale;
+        }
+    }
+
+    @Override
+    public double dot(int row, double[] x) {
+        int o = row * columns;
+        double s0 = 0.0;
+        double s1 = 0.0;
+        double s2 = 0.0;
+        double s3 = 0.0;
+        int k = 0;
+        for (; k + 3 < columns; k += 4) {
+            s0 += data[o + k] * x[k];
+            s1 += data[o + k + 1] * x[k + 1];
+            s2 += data[o + k + 2] * x[k + 2];
+            s3 += data[o + k + 3] * x[k + 3];
+        }
+        for (; k < columns; k++) {
+            s0 += data[o + k] * x[k];
+        }
+        return ((s0 + s1) + (s2 + s3)) * scales[row];
+    }
+
+    /**
+     * Product of the matrix with a vector. The vector is quantized to 16-bit
+     * integers, so that the inner products are calculated with integer
+     * arithmetic.
+     *
+     * @param x vector of length the number of columns
+     * @param y result vector of length the number of rows
+     */
+    @Override
+    public void mult(double[] x, double[] y) {
+        double max = 0.0;
+        for (int k = 0; k < columns; k++) {
+            max = Math.max(max, Math.abs(x[k]));
+        }
+        // 127 * 32767 * columns must not overflow an int
+        if (max == 0.0 || columns > MAX_INT_COLUMNS) {
+            super.mult(x, y);
+            return;
+        }
+
+        double xs = max / Short.MAX_VALUE;
+        short[] xq = new short[columns];
+        for (int k = 0; k < columns; k++) {
+            xq[k] = (short) Math.round(x[k] / xs);
+        }
+
+        for (int row = 0; row < rows; row++) {
+            int o = row * columns;
+            int s = 0;
+            for (int k = 0; k < columns; k++) {
+                s += data[o + k] * xq[k];
+            }
+            y[row] = s * xs * scales[row];
+        }
+    }
+}
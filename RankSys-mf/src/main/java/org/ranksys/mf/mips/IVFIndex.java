@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.mips;
+
+import es.uam.eps.ir.ranksys.fast.utils.topn.IntDoubleTopN;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static java.util.stream.IntStream.range;
+import org.ranksys.mf.matrix.FactorMatrix;
+import org.ranksys.mf.matrix.Kernels;
+
+/**
+ * Inverted file (IVF) index for approximate maximum inner product search
+ * over the rows of a factor matrix. Inner products are reduced to Euclidean
+ * distances by augmenting every row q with an extra coordinate
+ * sqrt(M^2 - |q|^2), where M is the maximum norm, and the augmented rows are
+ * clustered by k-means. A query only scores exactly the rows of the clusters
+ * whose centroids are closest to it, the number of probed clusters being the
+ * knob that trades recall for speed.
+ * <br>
+ * Y. Bachrach, Y. Finkelstein, R. Gilad-Bachrach, L. Katzir, N. Koenigstein,
+ * N. Nice and U. Paquet. Speeding up the Xbox recommender system using a
+ * Euclidean transformation for inner-product spaces. RecSys 2014.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public class IVFIndex {
+
+    private static final Logger LOG = Logger.getLogger(IVFIndex.class.getName());
+
+    private static final int DEFAULT_NUM_ITER = 10;
+    private static final int TRAINING_POINTS_PER_LIST = 256;
+
+    private final int K;
+    private final double maxNorm;
+    private final int numLists;
+    private final double[] centroids;
+    private final double[] halfCentroidNorm2;
+    private final int[] listOffsets;
+    private final int[] listIdxs;
+    private final double[] listVectors;
+
+    /**
+     * Constructor with default number of k-means iterations and seed.
+     *
+     * @param matrix factor matrix to be indexed
+     * @param numLists number of clusters, typically around the square root
+     * of the number of rows
+     */
+    public IVFIndex(FactorMatrix matrix, int numLists) {
+        this(matrix, numLists, DEFAULT_NUM_ITER, 0L);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param matrix factor matrix to be indexed
+     * @param numLists number of clusters, typically around the square root
+     * of the number of rows
+     * @param numIter number of k-means iterations
+     * @param seed seed for the selection of initial centroids and training
+     * points
+     */
+    public IVFIndex(FactorMatrix matrix, int numLists, int numIter, long seed) {
+        int n = matrix.rows();
+        this.K = matrix.columns();
+        this.numLists = Math.min(Math.max(1, numLists), n);
+        int D = K + 1;
+
+        long time0 = System.nanoTime();
+
+        // augmented rows, stored contiguously
+        double[] x = new double[Math.multiplyExact(n, D)];
+        double[] row = new double[K];
+        double maxNorm2 = 0.0;
+        for (int i = 0; i < n; i++) {
+            matrix.getRow(i, row);
+            System.arraycopy(row, 0, x, i * D, K);
+            double norm2 = Kernels.dot(row, 0, row, 0, K);
+            x[i * D + K] = norm2;
+            maxNorm2 = Math.max(maxNorm2, norm2);
+        }
+        for (int i = 0; i < n; i++) {
+            x[i * D + K] = Math.sqrt(maxNorm2 - x[i * D + K]);
+        }
+        this.maxNorm = Math.sqrt(maxNorm2);
+
+        Random rnd = new Random(seed);
+        int[] perm = range(0, n).toArray();
+        int numTrain = (int) Math.min(n, (long) TRAINING_POINTS_PER_LIST * this.numLists);
+        for (int i = 0; i < numTrain; i++) {
+            int j = i + rnd.nextInt(n - i);
+            int t = perm[i];
+            perm[i] = perm[j];
+            perm[j] = t;
+        }
+
+        this.centroids = new double[this.numLists * D];
+        for (int c = 0; c < this.numLists; c++) {
+            System.arraycopy(x, perm[c] * D, centroids, c * D, D);
+        }
+        this.halfCentroidNorm2 = new double[this.numLists];
+
+        int[] assignment = new int[n];
+        for (int it = 0; it < numIter; it++) {
+            updateNorms();
+            range(0, numTrain).parallel().forEach(t -> assignment[perm[t]] = nearest(x, perm[t] * D));
+
+            double[] sums = new double[this.numLists * D];
+            int[] counts = new int[this.numLists];
+            for (int t = 0; t < numTrain; t++) {
+                int i = perm[t];
+                int c = assignment[i];
+                Kernels.axpy(1.0, x, i * D, sums, c * D, D);
+                counts[c]++;
+            }
+            for (int c = 0; c < this.numLists; c++) {
+                if (counts[c] == 0) {
+                    int i = perm[rnd.nextInt(numTrain)];
+                    System.arraycopy(x, i * D, centroids, c * D, D);
+                } else {
+                    for (int d = 0; d < D; d++) {
+                        centroids[c * D + d] = sums[c * D + d] / counts[c];
+                    }
+                }
+            }
+        }
+        updateNorms();
+        range(0, n).parallel().forEach(i -> assignment[i] = nearest(x, i * D));
+
+        this.listOffsets = new int[this.numLists + 1];
+        for (int i = 0; i < n; i++) {
+            listOffsets[assignment[i] + 1]++;
+        }
+        for (int c = 0; c < this.numLists; c++) {
+            listOffsets[c + 1] += listOffsets[c];
+        }
+        this.listIdxs = new int[n];
+        this.listVectors = new double[Math.multiplyExact(n, K)];
+        int[] pos = new int[this.numLists];
+        for (int i = 0; i < n; i++) {
+            int c = assignment[i];
+            int j = listOffsets[c] + pos[c]++;
+            listIdxs[j] = i;
+            System.arraycopy(x, i * D, listVectors, j * K, K);
+        }
+
+        long time1 = System.nanoTime() - time0;
+        LOG.log(Level.INFO, String.format("IVF index n = %d lists = %d t = %.2fs", n, this.numLists, time1 / 1_000_000_000.0));
+    }
+
+    private void updateNorms() {
+        int D = K + 1;
+        for (int c = 0; c < numLists; c++) {
+            halfCentroidNorm2[c] = 0.5 * Kernels.dot(centroids, c * D, centroids, c * D, D);
+        }
+    }
+
+    private int nearest(double[] x, int xo) {
+        int D = K + 1;
+        int best = 0;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < numLists; c++) {
+            double s = Kernels.dot(x, xo, centroids, c * D, D) - halfCentroidNorm2[c];
+            if (s > bestScore) {
+                bestScore = s;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the number of clusters of the index.
+     *
+     * @return number of inverted lists
+     */
+    public int numLists() {
+        return numLists;
+    }
+
+    /**
+     * Returns the number of indexed rows.
+     *
+     * @return number of rows
+     */
+    public int numRows() {
+        return listIdxs.length;
+    }
+
+    /**
+     * Searches the rows with greatest inner product with a query vector.
+     * The rows of the probed clusters that pass the filter are scored exactly
+     * and added to the top-n heap.
+     *
+     * @param q query vector
+     * @param nprobe number of clusters to be probed
+     * @param filter filter of the rows to be scored
+     * @param topN heap where the candidates are added
+     * @return number of scored rows
+     */
+    public int search(double[] q, int nprobe, IntPredicate filter, IntDoubleTopN topN) {
+        int D = K + 1;
+        nprobe = Math.max(1, Math.min(nprobe, numLists));
+
+        // the query is scaled to the norm of the augmented rows, which does
+        // not change the ranking of the rows but that of the clusters
+        double qNorm = Math.sqrt(Kernels.dot(q, 0, q, 0, K));
+        double scale = qNorm > 0.0 ? maxNorm / qNorm : 0.0;
+        IntDoubleTopN lists = new IntDoubleTopN(nprobe);
+        for (int c = 0; c < numLists; c++) {
+            lists.add(c, scale * Kernels.dot(q, 0, centroids, c * D, K) - halfCentroidNorm2[c]);
+        }
+
+        int scored = 0;
+        for (Int2DoubleMap.Entry e : lists) {
+            int c = e.getIntKey();
+            for (int j = listOffsets[c]; j < listOffsets[c + 1]; j++) {
+                int i = listIdxs[j];
+                if (filter.test(i)) {
+                    topN.add(i, Kernels.dot(q, 0, listVectors, j * K, K));
+                    scored++;
+                }
+            }
+        }
+
+        return scored;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.monitor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Saves the factorization periodically in binary format, see
+ * {@link es.uam.eps.ir.ranksys.mf.Factorization#saveBinary(java.nio.file.Path)},
+ * so that a long training can be resumed from the last checkpoint.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <U> type of the users
+ * @param <I> type of the items
+ */
+public class Checkpointing<U, I> implements IterationListener<U, I> {
+
+    private static final Logger LOG = Logger.getLogger(Checkpointing.class.getName());
+
+    private final IntFunction<Path> paths;
+    private final int period;
+
+    /**
+     * Constructor.
+     *
+     * @param paths path of the checkpoint of each iteration number
+     * @param period number of iterations between checkpoints, positive
+     */
+    public Checkpointing(IntFunction<Path> paths, int period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive: " + period);
+        }
+        this.paths = paths;
+        this.period = period;
+    }
+
+    @Override
+    public boolean onIteration(Iteration<U, I> iteration) {
+        if (iteration.getIteration() % period == 0) {
+            Path path = paths.apply(iteration.getIteration());
+            try {
+                iteration.getFactorization().saveBinary(path);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            LOG.log(Level.INFO, String.format("checkpoint n = %3d %s", iteration.getIteration(), path));
+        }
+
+        return true;
+    }
+}
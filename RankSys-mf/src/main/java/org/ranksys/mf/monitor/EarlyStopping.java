@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.monitor;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stops a factorizer when the relative improvement of the loss between two
+ * consecutive iterations falls below a tolerance.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <U> type of the users
+ * @param <I> type of the items
+ */
+public class EarlyStopping<U, I> implements IterationListener<U, I> {
+
+    private static final Logger LOG = Logger.getLogger(EarlyStopping.class.getName());
+
+    private final double tolerance;
+    private final int minIterations;
+    private double lastLoss;
+
+    /**
+     * Constructor.
+     *
+     * @param tolerance minimum relative improvement of the loss
+     */
+    public EarlyStopping(double tolerance) {
+        this(tolerance, 1);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tolerance minimum relative improvement of the loss
+     * @param minIterations number of iterations before stopping is considered
+     */
+    public EarlyStopping(double tolerance, int minIterations) {
+        this.tolerance = tolerance;
+        this.minIterations = minIterations;
+        this.lastLoss = Double.NaN;
+    }
+
+    @Override
+    public boolean onIteration(Iteration<U, I> iteration) {
+        if (iteration.getIteration() == 1) {
+            lastLoss = Double.NaN;
+        }
+
+        double loss = iteration.getLoss();
+        double improvement = (lastLoss - loss) / Math.abs(lastLoss);
+        lastLoss = loss;
+
+        if (iteration.getIteration() >= minIterations && improvement < tolerance) {
+            LOG.log(Level.INFO, String.format("early stopping n = %3d e = %.6f improvement = %.3g", iteration.getIteration(), loss, improvement));
+            return false;
+        }
+
+        return true;
+    }
+}
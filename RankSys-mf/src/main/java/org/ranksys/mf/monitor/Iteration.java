@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.monitor;
+
+import es.uam.eps.ir.ranksys.mf.Factorization;
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Statistics and current state of an iteration of a factorizer. The loss is
+ * calculated lazily, the first time it is requested by a listener, so that
+ * listeners that do not need it do not pay for it.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <U> type of the users
+ * @param <I> type of the items
+ */
+public class Iteration<U, I> {
+
+    private final int iteration;
+    private final Map<String, Long> stepTimes;
+    private final long usedMemory;
+    private final Factorization<U, I> factorization;
+    private final DoubleSupplier lossSupplier;
+    private double loss;
+    private boolean lossCalculated;
+
+    /**
+     * Constructor. The used memory is measured at construction.
+     *
+     * @param iteration number of the iteration, starting at 1
+     * @param stepTimes time in nanoseconds of each step of the iteration, in
+     * order of execution
+     * @param factorization current factorization
+     * @param lossSupplier calculates the loss of the current factorization
+     */
+    public Iteration(int iteration, Map<String, Long> stepTimes, Factorization<U, I> factorization, DoubleSupplier lossSupplier) {
+        this.iteration = iteration;
+        this.stepTimes = Collections.unmodifiableMap(stepTimes);
+        Runtime runtime = Runtime.getRuntime();
+        this.usedMemory = runtime.totalMemory() - runtime.freeMemory();
+        this.factorization = factorization;
+        this.lossSupplier = lossSupplier;
+        this.lossCalculated = false;
+    }
+
+    /**
+     * Returns the number of the iteration.
+     *
+     * @return number of the iteration, starting at 1
+     */
+    public int getIteration() {
+        return iteration;
+    }
+
+    /**
+     * Returns the time spent in each step of the iteration, e.g., the user
+     * and item half-steps of alternating least squares.
+     *
+     * @return map from step name to time in nanoseconds, in order of
+     * execution
+     */
+    public Map<String, Long> getStepTimes() {
+        return stepTimes;
+    }
+
+    /**
+     * Returns the total time of the iteration.
+     *
+     * @return time in nanoseconds
+     */
+    public long getTime() {
+        return stepTimes.values().stream().mapToLong(t -> t).sum();
+    }
+
+    /**
+     * Returns the heap memory in use at the end of the iteration.
+     *
+     * @return used memory in bytes
+     */
+    public long getUsedMemory() {
+        return usedMemory;
+    }
+
+    /**
+     * Returns the current factorization.
+     *
+     * @return factorization
+     */
+    public Factorization<U, I> getFactorization() {
+        return factorization;
+    }
+
+    /**
+     * Returns the loss of the current factorization, calculating it on the
+     * first call.
+     *
+     * @return loss
+     */
+    public synchronized double getLoss() {
+        if (!lossCalculated) {
+            loss = lossSupplier.getAsDouble();
+            lossCalculated = true;
+        }
+        return loss;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("iteration n = %3d", iteration));
+        stepTimes.forEach((step, t) -> sb.append(String.format(" t(%s) = %.2fs", step, t / 1_000_000_000.0)));
+        sb.append(String.format(" mem = %dMB", usedMemory >> 20));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.monitor;
+
+/**
+ * Listener of the iterations of a factorizer. See
+ * {@link es.uam.eps.ir.ranksys.mf.Factorizer#addIterationListener}.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <U> type of the users
+ * @param <I> type of the items
+ */
+@FunctionalInterface
+public interface IterationListener<U, I> {
+
+    /**
+     * Called after each iteration of the factorizer.
+     *
+     * @param iteration statistics and current state of the iteration
+     * @return true to continue with the next iteration, false to stop
+     */
+    public boolean onIteration(Iteration<U, I> iteration);
+}
@@ -0,0 +1,12 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+/**
+ * Monitoring of the iterations of factorizers: convergence, early stopping and
+ * checkpointing.
+ */
+package org.ranksys.mf.monitor;
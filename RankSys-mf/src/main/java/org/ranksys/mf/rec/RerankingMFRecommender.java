@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.rec;
+
+import es.uam.eps.ir.ranksys.fast.FastRecommendation;
+import es.uam.eps.ir.ranksys.fast.index.FastItemIndex;
+import es.uam.eps.ir.ranksys.fast.index.FastUserIndex;
+import es.uam.eps.ir.ranksys.fast.utils.topn.IntDoubleTopN;
+import es.uam.eps.ir.ranksys.mf.Factorization;
+import es.uam.eps.ir.ranksys.mf.rec.MFRecommender;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.ranksys.mf.matrix.FactorMatrix;
+
+/**
+ * Matrix factorization recommender that selects candidates with a compact
+ * item matrix, e.g., a {@link org.ranksys.mf.matrix.QuantizedFactorMatrix},
+ * and re-ranks them with the full precision item matrix, which can be
+ * memory-mapped since only the rows of the candidates are read. The
+ * recommendations are exact unless an item outside the candidates would have
+ * entered the top.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <U> type of the users
+ * @param <I> type of the items
+ */
+public class RerankingMFRecommender<U, I> extends MFRecommender<U, I> {
+
+    private final FactorMatrix exactItems;
+    private final int candidateFactor;
+
+    /**
+     * Constructor.
+     *
+     * @param uIndex fast user index
+     * @param iIndex fast item index
+     * @param factorization factorization with the compact item matrix, see
+     * {@link Factorization#withItemFactors(FactorMatrix)}
+     * @param exactItems full precision item matrix
+     * @param candidateFactor number of candidates per recommended item
+     */
+    public RerankingMFRecommender(FastUserIndex<U> uIndex, FastItemIndex<I> iIndex, Factorization<U, I> factorization, FactorMatrix exactItems, int candidateFactor) {
+        super(uIndex, iIndex, factorization);
+        this.exactItems = exactItems;
+        this.candidateFactor = candidateFactor;
+    }
+
+    @Override
+    protected IntDoubleTopN getTopN(double[] pu, int maxLength, IntPredicate filter) {
+        if (maxLength == 0) {
+            maxLength = exactItems.rows();
+        }
+        int numCandidates = (int) Math.min(exactItems.rows(), (long) maxLength * candidateFactor);
+
+        IntDoubleTopN candidates = super.getTopN(pu, numCandidates, filter);
+
+        IntDoubleTopN topN = new IntDoubleTopN(maxLength);
+        for (int j = 0; j < candidates.size(); j++) {
+            int iidx = candidates.getIntAt(j);
+            topN.add(iidx, exactItems.dot(iidx, pu));
+        }
+
+        return topN;
+    }
+
+    @Override
+    protected double score(double[] pu, int iidx) {
+        return exactItems.dot(iidx, pu);
+    }
+
+    @Override
+    public List<FastRecommendation> getRecommendations(int[] uidxs, int maxLength, List<IntPredicate> filters) {
+        return IntStream.range(0, uidxs.length)
+                .mapToObj(j -> getRecommendation(uidxs[j], maxLength, filters.get(j)))
+                .collect(Collectors.toList());
+    }
+}
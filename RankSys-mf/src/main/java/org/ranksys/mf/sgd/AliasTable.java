@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.sgd;
+
+import java.util.Random;
+
+/**
+ * Sampling from a discrete distribution in constant time with Vose's alias
+ * method. Building the table takes linear time.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public class AliasTable {
+
+    private final double[] prob;
+    private final int[] alias;
+
+    /**
+     * Constructor.
+     *
+     * @param weights non-negative weights of the outcomes, not all zero
+     */
+    public AliasTable(double[] weights) {
+        int n = weights.length;
+        this.prob = new double[n];
+        this.alias = new int[n];
+
+        double sum = 0.0;
+        for (double w : weights) {
+            sum += w;
+        }
+
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int ns = 0;
+        int nl = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / sum;
+            if (scaled[i] < 1.0) {
+                small[ns++] = i;
+            } else {
+                large[nl++] = i;
+            }
+        }
+
+        while (ns > 0 && nl > 0) {
+            int s = small[--ns];
+            int l = large[--nl];
+            prob[s] = scaled[s];
+            alias[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+            if (scaled[l] < 1.0) {
+                small[ns++] = l;
+            } else {
+                large[nl++] = l;
+            }
+        }
+        while (nl > 0) {
+            prob[large[--nl]] = 1.0;
+        }
+        // only reached by rounding errors
+        while (ns > 0) {
+            prob[small[--ns]] = 1.0;
+        }
+    }
+
+    /**
+     * Number of outcomes.
+     *
+     * @return number of outcomes
+     */
+    public int size() {
+        return prob.length;
+    }
+
+    /**
+     * Draws an outcome.
+     *
+     * @param random random number generator, e.g., that of the current
+     * thread
+     * @return index of the outcome
+     */
+    public int sample(Random random) {
+        int i = random.nextInt(prob.length);
+        return random.nextDouble() < prob[i] ? i : alias[i];
+    }
+}
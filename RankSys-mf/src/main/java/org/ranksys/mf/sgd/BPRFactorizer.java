@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.sgd;
+
+import cern.colt.function.DoubleFunction;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import es.uam.eps.ir.ranksys.mf.Factorization;
+import es.uam.eps.ir.ranksys.mf.Factorizer;
+import static java.lang.Math.exp;
+import static java.lang.Math.log1p;
+import static java.lang.Math.pow;
+import static java.lang.Math.sqrt;
+import java.util.Arrays;
+import static java.util.Collections.singletonMap;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static java.util.stream.IntStream.range;
+import org.ranksys.mf.matrix.DenseFactorMatrix;
+import org.ranksys.mf.matrix.FactorMatrix;
+import org.ranksys.mf.matrix.Kernels;
+import org.ranksys.mf.monitor.Iteration;
+
+/**
+ * Bayesian personalized ranking factorizer. Each epoch draws as many (user,
+ * positive item, negative item) triples as preferences: the pair of user and
+ * positive item is drawn uniformly from the preferences, and the negative
+ * item from the items the user has not rated with probability proportional to
+ * a power of their popularity, with an {@link AliasTable}. Triples are drawn
+ * and applied in parallel with the random number generator of each thread
+ * and without synchronization of the factor matrices, as in
+ * {@link SGDFactorizer}.
+ * <br>
+ * S. Rendle, C. Freudenthaler, Z. Gantner and L. Schmidt-Thieme. BPR:
+ * Bayesian personalized ranking from implicit feedback. UAI 2009.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <U> type of the users
+ * @param <I> type of the items
+ */
+public class BPRFactorizer<U, I> extends Factorizer<U, I> {
+
+    private static final Logger LOG = Logger.getLogger(BPRFactorizer.class.getName());
+
+    private static final int BLOCK_SIZE = 1024;
+    private static final int MAX_TRIALS = 16;
+
+    private final double learningRate;
+    private final double lambda;
+    private final double popularityExponent;
+    private final int numEpochs;
+
+    /**
+     * Constructor with negative items sampled proportionally to their
+     * popularity.
+     *
+     * @param learningRate learning rate
+     * @param lambda regularization factor
+     * @param numEpochs number of passes over the preferences
+     */
+    public BPRFactorizer(double learningRate, double lambda, int numEpochs) {
+        this(learningRate, lambda, 1.0, numEpochs);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param learningRate learning rate
+     * @param lambda regularization factor
+     * @param popularityExponent exponent of the popularity of the items in the
+     * distribution of negative items, 0 for uniform sampling
+     * @param numEpochs number of passes over the preferences
+     */
+    public BPRFactorizer(double learningRate, double lambda, double popularityExponent, int numEpochs) {
+        this.learningRate = learningRate;
+        this.lambda = lambda;
+        this.popularityExponent = popularityExponent;
+        this.numEpochs = numEpochs;
+    }
+
+    /**
+     * Average BPR loss -ln sigma(s_ui - s_uj) of the preferences, each with a
+     * negative item drawn with a fixed seed.
+     *
+     * @param factorization matrix factorization
+     * @param data preference data
+     * @return the average loss
+     */
+    @Override
+    public double error(Factorization<U, I> factorization, FastPreferenceData<U, I> data) {
+        return error(factorization.getUserFactors(), factorization.getItemFactors(), new SampleData<>(data, popularityExponent));
+    }
+
+    private static double error(FactorMatrix p, FactorMatrix q, SampleData<?, ?> sample) {
+        Random random = new Random(0);
+        double[] pu = new double[p.columns()];
+        double error = 0.0;
+        int n = 0;
+        for (int uidx = 0; uidx < sample.offsets.length - 1; uidx++) {
+            if (sample.offsets[uidx] == sample.offsets[uidx + 1]) {
+                continue;
+            }
+            p.getRow(uidx, pu);
+            for (int j = sample.offsets[uidx]; j < sample.offsets[uidx + 1]; j++) {
+                int jidx = sample.negative(uidx, random);
+                if (jidx >= 0) {
+                    double x = q.dot(sample.iidxs[j], pu) - q.dot(jidx, pu);
+                    error += log1p(exp(-x));
+                    n++;
+                }
+            }
+        }
+
+        return n == 0 ? 0.0 : error / n;
+    }
+
+    @Override
+    public Factorization<U, I> factorize(int K, FastPreferenceData<U, I> data) {
+        DoubleFunction init = x -> sqrt(1.0 / K) * Math.random();
+        Factorization<U, I> factorization = new Factorization<>(data, data, K, init);
+        factorize(factorization, data);
+        return factorization;
+    }
+
+    @Override
+    public void factorize(Factorization<U, I> factorization, FastPreferenceData<U, I> data) {
+        DenseFactorMatrix p = factorization.getUserFactors().asDense();
+        DenseFactorMatrix q = factorization.getItemFactors().asDense();
+
+        range(0, p.rows()).filter(uidx -> data.numItems(uidx) == 0).forEach(uidx -> p.fillRow(uidx, 0.0));
+        range(0, q.rows()).filter(iidx -> data.numUsers(iidx) == 0).forEach(iidx -> q.fillRow(iidx, 0.0));
+
+        SampleData<U, I> sample = new SampleData<>(data, popularityExponent);
+        int n = sample.iidxs.length;
+        int numBlocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+        for (int t = 1; t <= numEpochs; t++) {
+            long time0 = System.nanoTime();
+
+            range(0, numBlocks).parallel().forEach(b -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                double[] qij = new double[q.columns()];
+                int m = Math.min(BLOCK_SIZE, n - b * BLOCK_SIZE);
+                for (int s = 0; s < m; s++) {
+                    int j = random.nextInt(n);
+                    int uidx = sample.uidxs[j];
+                    int jidx = sample.negative(uidx, random);
+                    if (jidx >= 0) {
+                        update(p, q, qij, uidx, sample.iidxs[j], jidx);
+                    }
+                }
+            });
+
+            int epoch = t;
+            long time1 = System.nanoTime() - time0;
+
+            LOG.log(Level.INFO, String.format("epoch n = %3d t = %.2fs", epoch, time1 / 1_000_000_000.0));
+            LOG.log(Level.FINE, () -> String.format("epoch n = %3d e = %.6f", epoch, error(p, q, sample)));
+
+            if (hasIterationListeners() && !notifyIteration(new Iteration<>(epoch, singletonMap("epoch", time1), factorization, () -> error(p, q, sample)))) {
+                break;
+            }
+        }
+    }
+
+    private void update(DenseFactorMatrix p, DenseFactorMatrix q, double[] qij, int uidx, int iidx, int jidx) {
+        int K = p.columns();
+        double[] pd = p.getData();
+        double[] qd = q.getData();
+        int po = p.offset(uidx);
+        int qi = q.offset(iidx);
+        int qj = q.offset(jidx);
+
+        for (int k = 0; k < K; k++) {
+            qij[k] = qd[qi + k] - qd[qj + k];
+        }
+        double g = 1.0 / (1.0 + exp(Kernels.dot(pd, po, qij, 0, K)));
+
+        for (int k = 0; k < K; k++) {
+            double pk = pd[po + k];
+            pd[po + k] = pk + learningRate * (g * qij[k] - lambda * pk);
+            qd[qi + k] += learningRate * (g * pk - lambda * qd[qi + k]);
+            qd[qj + k] += learningRate * (-g * pk - lambda * qd[qj + k]);
+        }
+    }
+
+    /**
+     * Preferences in compressed sparse row format with sorted items, and the
+     * distribution of negative items.
+     */
+    private static class SampleData<U, I> {
+
+        private final int[] offsets;
+        private final int[] uidxs;
+        private final int[] iidxs;
+        private final AliasTable negatives;
+
+        public SampleData(FastPreferenceData<U, I> data, double popularityExponent) {
+            int n = data.numPreferences();
+            this.offsets = new int[data.numUsers() + 1];
+            this.uidxs = new int[n];
+            this.iidxs = new int[n];
+            int[] j = {0};
+            for (int uidx = 0; uidx < data.numUsers(); uidx++) {
+                int u = uidx;
+                offsets[uidx] = j[0];
+                data.getUidxPreferences(uidx).forEach(iv -> {
+                    uidxs[j[0]] = u;
+                    iidxs[j[0]] = iv.idx;
+                    j[0]++;
+                });
+                Arrays.sort(iidxs, offsets[uidx], j[0]);
+            }
+            offsets[data.numUsers()] = j[0];
+
+            double[] weights = new double[data.numItems()];
+            for (int iidx = 0; iidx < weights.length; iidx++) {
+                int c = data.numUsers(iidx);
+                weights[iidx] = c == 0 ? 0.0 : pow(c, popularityExponent);
+            }
+            this.negatives = n == 0 ? null : new AliasTable(weights);
+        }
+
+        /**
+         * Draws an item the user has not rated, -1 if none was found.
+         */
+        public int negative(int uidx, Random random) {
+            for (int trial = 0; trial < MAX_TRIALS; trial++) {
+                int jidx = negatives.sample(random);
+                if (Arrays.binarySearch(iidxs, offsets[uidx], offsets[uidx + 1], jidx) < 0) {
+                    return jidx;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.sgd;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.exp;
+import static java.lang.Math.log1p;
+
+/**
+ * Loss function of a preference value and the score predicted by a
+ * factorization, for {@link SGDFactorizer}.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public interface Loss {
+
+    /**
+     * Value of the loss.
+     *
+     * @param r preference value
+     * @param s predicted score
+     * @return loss
+     */
+    public double loss(double r, double s);
+
+    /**
+     * Derivative of the loss with respect to the predicted score.
+     *
+     * @param r preference value
+     * @param s predicted score
+     * @return derivative of the loss
+     */
+    public double derivative(double r, double s);
+
+    /**
+     * Squared loss (s - r)^2 / 2, for rating prediction.
+     *
+     * @return squared loss
+     */
+    public static Loss squared() {
+        return new Loss() {
+            @Override
+            public double loss(double r, double s) {
+                return 0.5 * (s - r) * (s - r);
+            }
+
+            @Override
+            public double derivative(double r, double s) {
+                return s - r;
+            }
+        };
+    }
+
+    /**
+     * Huber loss, squared for small errors and linear for large ones, which
+     * makes it less sensitive to outliers than the squared loss.
+     *
+     * @param delta error where the loss changes from squared to linear
+     * @return Huber loss
+     */
+    public static Loss huber(double delta) {
+        return new Loss() {
+            @Override
+            public double loss(double r, double s) {
+                double d = abs(s - r);
+                return d <= delta ? 0.5 * d * d : delta * (d - 0.5 * delta);
+            }
+
+            @Override
+            public double derivative(double r, double s) {
+                double d = s - r;
+                return d > delta ? delta : (d < -delta ? -delta : d);
+            }
+        };
+    }
+
+    /**
+     * Logistic loss for binary relevance, where positive preference values
+     * are relevant and the rest, including sampled negatives, are not.
+     *
+     * @return logistic loss
+     */
+    public static Loss logistic() {
+        return new Loss() {
+            @Override
+            public double loss(double r, double s) {
+                double y = r > 0 ? 1.0 : 0.0;
+                // log(1 + exp(s)) - y s, computed stably
+                return (s > 0 ? s + log1p(exp(-s)) : log1p(exp(s))) - y * s;
+            }
+
+            @Override
+            public double derivative(double r, double s) {
+                double y = r > 0 ? 1.0 : 0.0;
+                double sigmoid = s >= 0 ? 1.0 / (1.0 + exp(-s)) : exp(s) / (1.0 + exp(s));
+                return sigmoid - y;
+            }
+        };
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.sgd;
+
+import cern.colt.function.DoubleFunction;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import es.uam.eps.ir.ranksys.mf.Factorization;
+import es.uam.eps.ir.ranksys.mf.Factorizer;
+import static java.lang.Math.sqrt;
+import static java.util.Collections.singletonMap;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static java.util.stream.IntStream.range;
+import org.ranksys.mf.matrix.DenseFactorMatrix;
+import org.ranksys.mf.matrix.FactorMatrix;
+import org.ranksys.mf.matrix.Kernels;
+import org.ranksys.mf.monitor.Iteration;
+
+/**
+ * Parallel stochastic gradient descent factorizer with lock-free updates.
+ * Threads update the factor matrices without synchronization, which is
+ * harmless when preferences are sparse since concurrent updates rarely touch
+ * the same rows.
+ * <br>
+ * The preferences are split in blocks of consecutive user preferences, which
+ * are shuffled internally once and whose order is shuffled in each epoch, so
+ * that a thread reuses the user vectors of a block while they are in cache.
+ * Learning rates are adapted per parameter with AdaGrad. Optionally, random
+ * items can be sampled as negative preferences of value 0 for implicit
+ * feedback objectives.
+ * <br>
+ * B. Recht, C. Re, S. Wright and F. Niu. Hogwild!: a lock-free approach to
+ * parallelizing stochastic gradient descent. NIPS 2011.
+ * <br>
+ * J. Duchi, E. Hazan and Y. Singer. Adaptive subgradient methods for online
+ * learning and stochastic optimization. JMLR 2011.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <U> type of the users
+ * @param <I> type of the items
+ */
+public class SGDFactorizer<U, I> extends Factorizer<U, I> {
+
+    private static final Logger LOG = Logger.getLogger(SGDFactorizer.class.getName());
+
+    private static final int BLOCK_SIZE = 1024;
+    private static final double EPSILON = 1e-8;
+
+    private final Loss loss;
+    private final double learningRate;
+    private final double lambda;
+    private final int numNegatives;
+    private final int numEpochs;
+
+    /**
+     * Constructor without negative sampling.
+     *
+     * @param loss loss function
+     * @param learningRate initial learning rate
+     * @param lambda regularization factor
+     * @param numEpochs number of passes over the preferences
+     */
+    public SGDFactorizer(Loss loss, double learningRate, double lambda, int numEpochs) {
+        this(loss, learningRate, lambda, 0, numEpochs);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param loss loss function
+     * @param learningRate initial learning rate
+     * @param lambda regularization factor
+     * @param numNegatives number of random items sampled as negative
+     * preferences for each preference
+     * @param numEpochs number of passes over the preferences
+     */
+    public SGDFactorizer(Loss loss, double learningRate, double lambda, int numNegatives, int numEpochs) {
+        this.loss = loss;
+        this.learningRate = learningRate;
+        this.lambda = lambda;
+        this.numNegatives = numNegatives;
+        this.numEpochs = numEpochs;
+    }
+
+    /**
+     * Average loss of the factorization over the preferences of the data.
+     *
+     * @param factorization matrix factorization
+     * @param data preference data
+     * @return the average loss
+     */
+    @Override
+    public double error(Factorization<U, I> factorization, FastPreferenceData<U, I> data) {
+        FactorMatrix p = factorization.getUserFactors();
+        FactorMatrix q = factorization.getItemFactors();
+
+        double error = data.getUidxWithPreferences().parallel().mapToDouble(uidx -> {
+            double[] pu = new double[p.columns()];
+            p.getRow(uidx, pu);
+            return data.getUidxPreferences(uidx)
+                    .mapToDouble(iv -> loss.loss(iv.v, q.dot(iv.idx, pu)))
+                    .sum();
+        }).sum();
+
+        return error / data.numPreferences();
+    }
+
+    @Override
+    public Factorization<U, I> factorize(int K, FastPreferenceData<U, I> data) {
+        DoubleFunction init = x -> sqrt(1.0 / K) * Math.random();
+        Factorization<U, I> factorization = new Factorization<>(data, data, K, init);
+        factorize(factorization, data);
+        return factorization;
+    }
+
+    @Override
+    public void factorize(Factorization<U, I> factorization, FastPreferenceData<U, I> data) {
+        DenseFactorMatrix p = factorization.getUserFactors().asDense();
+        DenseFactorMatrix q = factorization.getItemFactors().asDense();
+
+        range(0, p.rows()).filter(uidx -> data.numItems(uidx) == 0).forEach(uidx -> p.fillRow(uidx, 0.0));
+        range(0, q.rows()).filter(iidx -> data.numUsers(iidx) == 0).forEach(iidx -> q.fillRow(iidx, 0.0));
+
+        int n = data.numPreferences();
+        int[] uidxs = new int[n];
+        int[] iidxs = new int[n];
+        double[] vs = new double[n];
+        int[] j = {0};
+        data.getUidxWithPreferences().forEach(uidx -> data.getUidxPreferences(uidx).forEach(iv -> {
+            uidxs[j[0]] = uidx;
+            iidxs[j[0]] = iv.idx;
+            vs[j[0]] = iv.v;
+            j[0]++;
+        }));
+
+        Random rnd = new Random();
+        int numBlocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        for (int b = 0; b < numBlocks; b++) {
+            int from = b * BLOCK_SIZE;
+            int to = Math.min(n, from + BLOCK_SIZE);
+            for (int i = to - 1; i > from; i--) {
+                int k = from + rnd.nextInt(i - from + 1);
+                swap(uidxs, iidxs, vs, i, k);
+            }
+        }
+        int[] blocks = range(0, numBlocks).toArray();
+
+        double[] hp = new double[p.getData().length];
+        double[] hq = new double[q.getData().length];
+
+        for (int t = 1; t <= numEpochs; t++) {
+            long time0 = System.nanoTime();
+
+            for (int b = numBlocks - 1; b > 0; b--) {
+                int k = rnd.nextInt(b + 1);
+                int aux = blocks[b];
+                blocks[b] = blocks[k];
+                blocks[k] = aux;
+            }
+
+            range(0, numBlocks).parallel().forEach(b -> {
+                int from = blocks[b] * BLOCK_SIZE;
+                int to = Math.min(n, from + BLOCK_SIZE);
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = from; i < to; i++) {
+                    update(p, q, hp, hq, uidxs[i], iidxs[i], vs[i]);
+                    for (int s = 0; s < numNegatives; s++) {
+                        update(p, q, hp, hq, uidxs[i], random.nextInt(q.rows()), 0.0);
+                    }
+                }
+            });
+
+            int epoch = t;
+            long time1 = System.nanoTime() - time0;
+
+            LOG.log(Level.INFO, String.format("epoch n = %3d t = %.2fs", epoch, time1 / 1_000_000_000.0));
+            LOG.log(Level.FINE, () -> String.format("epoch n = %3d e = %.6f", epoch, error(factorization, data)));
+
+            if (hasIterationListeners() && !notifyIteration(new Iteration<>(epoch, singletonMap("epoch", time1), factorization, () -> error(factorization, data)))) {
+                break;
+            }
+        }
+    }
+
+    private void update(DenseFactorMatrix p, DenseFactorMatrix q, double[] hp, double[] hq, int uidx, int iidx, double v) {
+        int K = p.columns();
+        double[] pd = p.getData();
+        double[] qd = q.getData();
+        int po = p.offset(uidx);
+        int qo = q.offset(iidx);
+
+        double g = loss.derivative(v, Kernels.dot(pd, po, qd, qo, K));
+
+        for (int k = 0; k < K; k++) {
+            double pk = pd[po + k];
+            double qk = qd[qo + k];
+            double gp = g * qk + lambda * pk;
+            double gq = g * pk + lambda * qk;
+            hp[po + k] += gp * gp;
+            hq[qo + k] += gq * gq;
+            pd[po + k] = pk - learningRate * gp / sqrt(hp[po + k] + EPSILON);
+            qd[qo + k] = qk - learningRate * gq / sqrt(hq[qo + k] + EPSILON);
+        }
+    }
+
+    private static void swap(int[] uidxs, int[] iidxs, double[] vs, int i, int j) {
+        int u = uidxs[i];
+        uidxs[i] = uidxs[j];
+        uidxs[j] = u;
+        int it = iidxs[i];
+        iidxs[i] = iidxs[j];
+        iidxs[j] = it;
+        double v = vs[i];
+        vs[i] = vs[j];
+        vs[j] = v;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.mf.svd;
+
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import es.uam.eps.ir.ranksys.fast.preference.TransposedPreferenceData;
+import es.uam.eps.ir.ranksys.mf.Factorization;
+import es.uam.eps.ir.ranksys.mf.Factorizer;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static java.util.stream.IntStream.range;
+import org.ranksys.mf.matrix.DenseFactorMatrix;
+import org.ranksys.mf.matrix.FactorMatrix;
+import org.ranksys.mf.matrix.Kernels;
+
+/**
+ * Truncated singular value decomposition R = U S V^t of the preference matrix,
+ * where missing preferences are zeros, by randomized range finding. The user
+ * matrix is U S and the item matrix V, so that the scores are those of
+ * PureSVD, r_u V V^t. The range of R is sampled with a random Gaussian
+ * matrix and refined with power iterations, so that the decomposition takes
+ * 2 numPowerIter + 2 passes over the preferences, each a parallel sparse
+ * product over the rows of the data.
+ * <br>
+ * N. Halko, P. G. Martinsson and J. A. Tropp. Finding structure with
+ * randomness: probabilistic algorithms for constructing approximate matrix
+ * decompositions. SIAM Review 2011.
+ * <br>
+ * P. Cremonesi, Y. Koren and R. Turrin. Performance of recommender algorithms
+ * on top-N recommendation tasks. RecSys 2010.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <U> type of the users
+ * @param <I> type of the items
+ */
+public class RandomizedSVDFactorizer<U, I> extends Factorizer<U, I> {
+
+    private static final Logger LOG = Logger.getLogger(RandomizedSVDFactorizer.class.getName());
+
+    private final int oversampling;
+    private final int numPowerIter;
+
+    /**
+     * Constructor with an oversampling of 10 dimensions.
+     *
+     * @param numPowerIter number of power iterations
+     */
+    public RandomizedSVDFactorizer(int numPowerIter) {
+        this(10, numPowerIter);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param oversampling number of dimensions sampled in addition to the
+     * rank of the decomposition
+     * @param numPowerIter number of power iterations, the greater the more
+     * accurate when singular values decay slowly
+     */
+    public RandomizedSVDFactorizer(int oversampling, int numPowerIter) {
+        this.oversampling = oversampling;
+        this.numPowerIter = numPowerIter;
+    }
+
+    /**
+     * Squared reconstruction error of the preference matrix, averaged over
+     * users and items.
+     *
+     * @param factorization matrix factorization
+     * @param data preference data
+     * @return squared reconstruction error
+     */
+    @Override
+    public double error(Factorization<U, I> factorization, FastPreferenceData<U, I> data) {
+        FactorMatrix p = factorization.getUserFactors();
+        FactorMatrix q = factorization.getItemFactors();
+        int K = p.columns();
+        double[] gram = q.gram();
+
+        double error = data.getUidxWithPreferences().parallel().mapToDouble(uidx -> {
+            double[] pu = new double[K];
+            p.getRow(uidx, pu);
+            double[] gpu = new double[K];
+            Kernels.gemv(gram, pu, gpu, K);
+
+            double err1 = data.getUidxPreferences(uidx).mapToDouble(iv -> {
+                double sui = q.dot(iv.idx, pu);
+                return (iv.v - sui) * (iv.v - sui) - sui * sui;
+            }).sum();
+            double err2 = Kernels.dot(pu, 0, gpu, 0, K);
+
+            return (err1 + err2) / data.numItems();
+        }).sum() / data.numUsers();
+
+        return error;
+    }
+
+    @Override
+    public Factorization<U, I> factorize(int K, FastPreferenceData<U, I> data) {
+        Factorization<U, I> factorization = new Factorization<>(data, data, K, x -> 0.0);
+        factorize(factorization, data);
+        return factorization;
+    }
+
+    /**
+     * Calculates the decomposition into the matrices of a factorization.
+     * Being non-iterative, the previous values of the factorization are not
+     * used.
+     *
+     * @param factorization matrix factorization
+     * @param data preference data
+     */
+    @Override
+    public void factorize(Factorization<U, I> factorization, FastPreferenceData<U, I> data) {
+        DenseFactorMatrix p = factorization.getUserFactors().asDense();
+        DenseFactorMatrix q = factorization.getItemFactors().asDense();
+        FastPreferenceData<I, U> transposed = new TransposedPreferenceData<>(data);
+        int K = factorization.getK();
+        int l = Math.max(1, Math.min(K + oversampling, Math.min(p.rows(), q.rows())));
+
+        long time0 = System.nanoTime();
+
+        Random random = new Random();
+        DenseFactorMatrix z = new DenseFactorMatrix(q.rows(), l);
+        z.assign(random::nextGaussian);
+        DenseFactorMatrix y = new DenseFactorMatrix(p.rows(), l);
+        multiply(data, z, y);
+        orthonormalize(y);
+
+        for (int t = 1; t <= numPowerIter; t++) {
+            long time1 = System.nanoTime();
+            multiply(transposed, y, z);
+            orthonormalize(z);
+            multiply(data, z, y);
+            orthonormalize(y);
+
+            int iter = t;
+            long time2 = System.nanoTime() - time1;
+            LOG.log(Level.INFO, String.format("iteration n = %3d t = %.2fs", iter, time2 / 1_000_000_000.0));
+        }
+
+        // B^t = R^t Y, with B = Y^t R = W S V^t, so that B B^t = W S^2 W^t
+        multiply(transposed, y, z);
+        double[] W = new double[l * l];
+        double[] s2 = new double[l];
+        Kernels.symmetricEigen(z.gram(), W, s2, l);
+
+        // U S = Y W S and V = B^t W S^-1
+        int K1 = Math.min(K, l);
+        double[] sigma = new double[K1];
+        for (int k = 0; k < K1; k++) {
+            sigma[k] = Math.sqrt(Math.max(0.0, s2[k]));
+        }
+        rotate(y, W, sigma, false, p);
+        rotate(z, W, sigma, true, q);
+
+        long time3 = System.nanoTime() - time0;
+        LOG.log(Level.INFO, String.format("svd t = %.2fs", time3 / 1_000_000_000.0));
+    }
+
+    /**
+     * Sparse product y = R x by rows of the preference data.
+     */
+    private static <U, I> void multiply(FastPreferenceData<U, I> data, DenseFactorMatrix x, DenseFactorMatrix y) {
+        int l = x.columns();
+        double[] xd = x.getData();
+        double[] yd = y.getData();
+
+        y.fill(0.0);
+        data.getUidxWithPreferences().parallel().forEach(uidx -> {
+            int yo = y.offset(uidx);
+            data.getUidxPreferences(uidx).forEach(iv -> {
+                Kernels.axpy(iv.v, xd, x.offset(iv.idx), yd, yo, l);
+            });
+        });
+    }
+
+    /**
+     * Orthonormalizes the columns of a tall matrix by CholeskyQR2: Y is
+     * replaced by Y L^-t, with Y^t Y = L L^t, twice to recover the
+     * orthogonality lost in the first pass. Rank deficient matrices are
+     * handled with a small diagonal shift.
+     */
+    private static void orthonormalize(DenseFactorMatrix y) {
+        int l = y.columns();
+        double[] yd = y.getData();
+
+        for (int pass = 0; pass < 2; pass++) {
+            double[] G = y.gram();
+            double trace = 0.0;
+            for (int k = 0; k < l; k++) {
+                trace += G[k * l + k];
+            }
+            if (!(trace > 0.0)) {
+                return;
+            }
+
+            double[] L = G.clone();
+            double shift = 1e-14 * trace;
+            while (!Kernels.cholesky(L, l)) {
+                System.arraycopy(G, 0, L, 0, l * l);
+                for (int k = 0; k < l; k++) {
+                    L[k * l + k] += shift;
+                }
+                shift *= 10;
+            }
+
+            range(0, y.rows()).parallel().forEach(row -> Kernels.forwardSolve(L, yd, y.offset(row), l));
+        }
+    }
+
+    /**
+     * Calculates dst = x W diag(sigma) or dst = x W diag(sigma)^-1 for the
+     * first columns of W, with zeros for null singular values.
+     */
+    private static void rotate(DenseFactorMatrix x, double[] W, double[] sigma, boolean inverse, DenseFactorMatrix dst) {
+        int l = x.columns();
+        int K1 = sigma.length;
+        double[] xd = x.getData();
+        double[] dd = dst.getData();
+
+        dst.fill(0.0);
+        range(0, x.rows()).parallel().forEach(row -> {
+            int xo = x.offset(row);
+            int o = dst.offset(row);
+            for (int j = 0; j < l; j++) {
+                double xj = xd[xo + j];
+                if (xj != 0.0) {
+                    Kernels.axpy(xj, W, j * l, dd, o, K1);
+                }
+            }
+            for (int k = 0; k < K1; k++) {
+                if (!inverse) {
+                    dd[o + k] *= sigma[k];
+                } else if (sigma[k] > 0.0) {
+                    dd[o + k] /= sigma[k];
+                } else {
+                    dd[o + k] = 0.0;
+                }
+            }
+        });
+    }
+}
@@ -14,6 +14,7 @@ import es.uam.eps.ir.ranksys.nn.item.neighborhood.ItemNeighborhood;
 import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
 import static java.lang.Math.pow;
+import org.ranksys.fast.utils.DenseAccumulator;
 
 /**
  * Item-based nearest neighbors recommender.
@@ -83,4 +84,22 @@ public class ItemNeighborhoodRecommender<U, I> extends FastRankingRecommender<U,
         return scoresMap;
     }
 
+    @Override
+    protected void getScores(int uidx, DenseAccumulator scores) {
+        data.getUidxPreferences(uidx).forEach(jp -> {
+            neighborhood.getNeighbors(jp.idx).forEach(is -> {
+                double w = pow(is.v, q);
+                scores.add(is.idx, w * jp.v);
+            });
+        });
+    }
+
+    @Override
+    protected void getScores(int uidx, boolean[] candidates, DenseAccumulator scores) {
+        data.getUidxPreferences(uidx).forEach(jp -> {
+            neighborhood.getNeighbors(jp.idx)
+                    .filter(is -> candidates[is.idx])
+                    .forEach(is -> scores.add(is.idx, pow(is.v, q) * jp.v));
+        });
+    }
 }
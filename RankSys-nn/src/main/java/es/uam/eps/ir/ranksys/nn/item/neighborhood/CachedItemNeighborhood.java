@@ -8,7 +8,11 @@
  */
 package es.uam.eps.ir.ranksys.nn.item.neighborhood;
 
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import es.uam.eps.ir.ranksys.fast.preference.TransposedPreferenceData;
 import es.uam.eps.ir.ranksys.nn.neighborhood.CachedNeighborhood;
+import org.ranksys.nn.neighborhood.NeighborhoodScheduler;
+import static org.ranksys.nn.neighborhood.NeighborhoodScheduler.coOccurrenceCost;
 
 /**
  * Cached item neighborhood. See {@link CachedNeighborhood}.
@@ -27,4 +31,16 @@ public class CachedItemNeighborhood<I> extends ItemNeighborhood<I> {
     public CachedItemNeighborhood(ItemNeighborhood<I> neighborhood) {
         super(neighborhood, new CachedNeighborhood(neighborhood.numItems(), neighborhood));
     }
+
+    /**
+     * Constructor that balances the load between threads according to the
+     * number of co-occurrences of each item in the preference data. See
+     * {@link NeighborhoodScheduler}.
+     *
+     * @param neighborhood item neighborhood to be cached
+     * @param data preference data from which the neighborhoods are calculated
+     */
+    public CachedItemNeighborhood(ItemNeighborhood<I> neighborhood, FastPreferenceData<?, I> data) {
+        super(neighborhood, new CachedNeighborhood(neighborhood.numItems(), neighborhood, new NeighborhoodScheduler(coOccurrenceCost(new TransposedPreferenceData<>(data)))));
+    }
 }
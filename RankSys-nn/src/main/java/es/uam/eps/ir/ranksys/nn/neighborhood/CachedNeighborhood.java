@@ -15,6 +15,7 @@ import it.unimi.dsi.fastutil.ints.IntArrayList;
 import static java.util.stream.IntStream.range;
 import java.util.stream.Stream;
 import static java.util.stream.Stream.empty;
+import org.ranksys.nn.neighborhood.NeighborhoodScheduler;
 
 /**
  * Cached neighborhood. Stores user neighborhoods.
@@ -49,6 +50,31 @@ public class CachedNeighborhood implements Neighborhood {
         });
     }
 
+    /**
+     * Constructor that calculates and caches neighborhoods, balancing the
+     * calculations between threads with a scheduler.
+     *
+     * @param n number of users/items
+     * @param neighborhood generic neighborhood to be cached
+     * @param scheduler cost-balanced scheduler of the calculations
+     */
+    public CachedNeighborhood(int n, Neighborhood neighborhood, NeighborhoodScheduler scheduler) {
+
+        this.idxla = new IntArrayList[n];
+        this.simla = new DoubleArrayList[n];
+
+        scheduler.forEach(n, idx -> {
+            IntArrayList idxl = new IntArrayList();
+            DoubleArrayList siml = new DoubleArrayList();
+            neighborhood.getNeighbors(idx).forEach(is -> {
+                idxl.add(is.idx);
+                siml.add(is.v);
+            });
+            idxla[idx] = idxl;
+            simla[idx] = siml;
+        });
+    }
+
     /**
      * Constructor that caches a stream of previously calculated neighborhoods.
      *
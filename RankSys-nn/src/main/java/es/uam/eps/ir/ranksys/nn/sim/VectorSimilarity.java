@@ -9,11 +9,14 @@
 package es.uam.eps.ir.ranksys.nn.sim;
 
 import es.uam.eps.ir.ranksys.fast.IdxDouble;
+import es.uam.eps.ir.ranksys.fast.IdxObject;
 import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
 import it.unimi.dsi.fastutil.doubles.DoubleIterator;
 import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import es.uam.eps.ir.ranksys.fast.utils.topn.IntDoubleTopN;
 import it.unimi.dsi.fastutil.ints.IntIterator;
+import java.util.Arrays;
 import java.util.function.IntToDoubleFunction;
 import static java.util.stream.IntStream.range;
 import java.util.stream.Stream;
@@ -25,6 +28,8 @@ import java.util.stream.Stream;
  */
 public abstract class VectorSimilarity implements Similarity {
 
+    private static final int DENSE_CHUNK = 64;
+
     /**
      * User-item preferences.
      */
@@ -222,6 +227,198 @@ public abstract class VectorSimilarity implements Similarity {
         }
     }
 
+    /**
+     * Calculates the top-k most similar users/items of every user/item by
+     * means of a blocked, multi-threaded dense product of the preference
+     * matrix with its transpose. The rows are processed in blocks of
+     * blockSize users/items whose products with all the rest are accumulated
+     * in a dense buffer, tile by tile of tileSize columns, and the top-k
+     * neighbors are extracted from the buffer before moving to the next block.
+     * <br>
+     * This is faster than the sparse calculation of {@link #similarElems(int)}
+     * for small sets of users/items with dense profiles, e.g., item-item
+     * similarities of catalogs of a few tens of thousands of items. Note that
+     * it requires blockSize * n + tileSize * n doubles of memory, where n is
+     * the number of users/items.
+     *
+     * @param k maximum size of the neighborhoods
+     * @param blockSize number of users/items whose products are accumulated at once
+     * @param tileSize number of columns of the preference matrix in each tile
+     * @return stream of user/item-neighborhood pairs
+     */
+    public Stream<IdxObject<Stream<IdxDouble>>> getDenseBlockNeighborhoods(int k, int blockSize, int tileSize) {
+        int n = data.numUsers();
+        int m = data.numItems();
+        if ((long) n * blockSize > Integer.MAX_VALUE || (long) n * tileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("block or tile too large for " + n + " users/items");
+        }
+
+        double[] norm2 = new double[n];
+        range(0, n).forEach(idx -> norm2[idx] = dense ? norm2Array[idx] : norm2Map.get(idx));
+
+        int[][] neighbors = new int[n][];
+        double[][] sims = new double[n][];
+
+        double[] products = new double[Math.min(n, blockSize) * n];
+        double[] tile = new double[n * tileSize];
+        boolean[] active = new boolean[n];
+        int[] activeRows = new int[n];
+        int[] blockRows = new int[blockSize];
+
+        for (int b0 = 0; b0 < n; b0 += blockSize) {
+            int b1 = Math.min(n, b0 + blockSize);
+            int offset = b0;
+
+            for (int f0 = 0; f0 < m; f0 += tileSize) {
+                int f1 = Math.min(m, f0 + tileSize);
+                int t = f1 - f0;
+
+                int na = fillTile(tile, f0, f1, active, activeRows);
+                int nb = 0;
+                for (int r = b0; r < b1; r++) {
+                    if (active[r]) {
+                        blockRows[nb++] = r;
+                    }
+                }
+
+                if (nb > 0) {
+                    int nbf = nb;
+                    range(0, (na + DENSE_CHUNK - 1) / DENSE_CHUNK).parallel().forEach(c -> {
+                        int a0 = c * DENSE_CHUNK;
+                        int a1 = Math.min(na, a0 + DENSE_CHUNK);
+                        int b = 0;
+                        for (; b + 3 < nbf; b += 4) {
+                            dot4(tile, products, n, t, offset, blockRows, b, activeRows, a0, a1);
+                        }
+                        for (; b < nbf; b++) {
+                            int r = blockRows[b];
+                            int p = (r - offset) * n;
+                            for (int a = a0; a < a1; a++) {
+                                int j = activeRows[a];
+                                products[p + j] += dot(tile, r * t, j * t, t);
+                            }
+                        }
+                    });
+                }
+
+                for (int a = 0; a < na; a++) {
+                    int j = activeRows[a];
+                    Arrays.fill(tile, j * t, j * t + t, 0.0);
+                    active[j] = false;
+                }
+            }
+
+            range(b0, b1).parallel().forEach(r -> {
+                int p = (r - offset) * n;
+                IntDoubleTopN topN = new IntDoubleTopN(k);
+                for (int j = 0; j < n; j++) {
+                    double product = products[p + j];
+                    if (product != 0.0 && j != r) {
+                        topN.add(j, sim(product, norm2[r], norm2[j]));
+                    }
+                }
+                topN.sort();
+
+                int[] idxs = new int[topN.size()];
+                double[] vs = new double[topN.size()];
+                int[] i = {0};
+                topN.reverseStream().forEach(e -> {
+                    idxs[i[0]] = e.getIntKey();
+                    vs[i[0]] = e.getDoubleValue();
+                    i[0]++;
+                });
+                neighbors[r] = idxs;
+                sims[r] = vs;
+
+                Arrays.fill(products, p, p + n, 0.0);
+            });
+        }
+
+        return range(0, n).mapToObj(idx -> new IdxObject<>(idx, range(0, neighbors[idx].length)
+                .mapToObj(i -> new IdxDouble(neighbors[idx][i], sims[idx][i]))));
+    }
+
+    private int fillTile(double[] tile, int f0, int f1, boolean[] active, int[] activeRows) {
+        int t = f1 - f0;
+        int[] na = {0};
+        for (int f = f0; f < f1; f++) {
+            int col = f - f0;
+            if (data.useIteratorsPreferentially()) {
+                IntIterator idxs = data.getIidxUidxs(f);
+                DoubleIterator vs = data.getIidxVs(f);
+                while (idxs.hasNext()) {
+                    int idx = idxs.nextInt();
+                    tile[idx * t + col] = vs.nextDouble();
+                    if (!active[idx]) {
+                        active[idx] = true;
+                        activeRows[na[0]++] = idx;
+                    }
+                }
+            } else {
+                data.getIidxPreferences(f).forEach(up -> {
+                    tile[up.idx * t + col] = up.v;
+                    if (!active[up.idx]) {
+                        active[up.idx] = true;
+                        activeRows[na[0]++] = up.idx;
+                    }
+                });
+            }
+        }
+        return na[0];
+    }
+
+    private static void dot4(double[] x, double[] products, int n, int t, int offset, int[] rows, int b, int[] cols, int a0, int a1) {
+        int r0 = rows[b];
+        int r1 = rows[b + 1];
+        int r2 = rows[b + 2];
+        int r3 = rows[b + 3];
+        int i0 = r0 * t;
+        int i1 = r1 * t;
+        int i2 = r2 * t;
+        int i3 = r3 * t;
+        int p0 = (r0 - offset) * n;
+        int p1 = (r1 - offset) * n;
+        int p2 = (r2 - offset) * n;
+        int p3 = (r3 - offset) * n;
+        for (int a = a0; a < a1; a++) {
+            int j = cols[a];
+            int jt = j * t;
+            double s0 = 0.0;
+            double s1 = 0.0;
+            double s2 = 0.0;
+            double s3 = 0.0;
+            for (int l = 0; l < t; l++) {
+                double y = x[jt + l];
+                s0 += x[i0 + l] * y;
+                s1 += x[i1 + l] * y;
+                s2 += x[i2 + l] * y;
+                s3 += x[i3 + l] * y;
+            }
+            products[p0 + j] += s0;
+            products[p1 + j] += s1;
+            products[p2 + j] += s2;
+            products[p3 + j] += s3;
+        }
+    }
+
+    private static double dot(double[] x, int i, int j, int t) {
+        double s0 = 0.0;
+        double s1 = 0.0;
+        double s2 = 0.0;
+        double s3 = 0.0;
+        int l = 0;
+        for (; l + 3 < t; l += 4) {
+            s0 += x[i + l] * x[j + l];
+            s1 += x[i + l + 1] * x[j + l + 1];
+            s2 += x[i + l + 2] * x[j + l + 2];
+            s3 += x[i + l + 3] * x[j + l + 3];
+        }
+        for (; l < t; l++) {
+            s0 += x[i + l] * x[j + l];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
     /**
      * Calculates the similarity value.
      *
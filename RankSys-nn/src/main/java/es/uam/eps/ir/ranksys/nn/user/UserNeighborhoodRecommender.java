@@ -14,6 +14,7 @@ import es.uam.eps.ir.ranksys.nn.user.neighborhood.UserNeighborhood;
 import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
 import static java.lang.Math.pow;
+import org.ranksys.fast.utils.DenseAccumulator;
 
 /**
  * Item-based nearest neighbors recommender.
@@ -83,4 +84,22 @@ public class UserNeighborhoodRecommender<U, I> extends FastRankingRecommender<U,
 
         return scoresMap;
     }
+
+    @Override
+    protected void getScores(int uidx, DenseAccumulator scores) {
+        neighborhood.getNeighbors(uidx).forEach(vs -> {
+            double w = pow(vs.v, q);
+            data.getUidxPreferences(vs.idx).forEach(iv -> scores.add(iv.idx, w * iv.v));
+        });
+    }
+
+    @Override
+    protected void getScores(int uidx, boolean[] candidates, DenseAccumulator scores) {
+        neighborhood.getNeighbors(uidx).forEach(vs -> {
+            double w = pow(vs.v, q);
+            data.getUidxPreferences(vs.idx)
+                    .filter(iv -> candidates[iv.idx])
+                    .forEach(iv -> scores.add(iv.idx, w * iv.v));
+        });
+    }
 }
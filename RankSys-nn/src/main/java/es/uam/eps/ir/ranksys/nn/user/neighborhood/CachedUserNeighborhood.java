@@ -13,8 +13,11 @@ import es.uam.eps.ir.ranksys.core.IdObject;
 import es.uam.eps.ir.ranksys.fast.IdxDouble;
 import es.uam.eps.ir.ranksys.fast.IdxObject;
 import es.uam.eps.ir.ranksys.fast.index.FastUserIndex;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
 import es.uam.eps.ir.ranksys.nn.neighborhood.CachedNeighborhood;
 import java.util.stream.Stream;
+import org.ranksys.nn.neighborhood.NeighborhoodScheduler;
+import static org.ranksys.nn.neighborhood.NeighborhoodScheduler.coOccurrenceCost;
 
 /**
  * Cached user similarity. See {@link CachedNeighborhood}.
@@ -34,6 +37,18 @@ public class CachedUserNeighborhood<U> extends UserNeighborhood<U> {
         super(neighborhood, new CachedNeighborhood(neighborhood.numUsers(), neighborhood));
     }
 
+    /**
+     * Constructor that calculates and caches user neighborhoods, balancing
+     * the load between threads according to the number of co-occurrences of
+     * each user in the preference data. See {@link NeighborhoodScheduler}.
+     *
+     * @param neighborhood user neighborhood to be cached
+     * @param data preference data from which the neighborhoods are calculated
+     */
+    public CachedUserNeighborhood(UserNeighborhood<U> neighborhood, FastPreferenceData<U, ?> data) {
+        super(neighborhood, new CachedNeighborhood(neighborhood.numUsers(), neighborhood, new NeighborhoodScheduler(coOccurrenceCost(data))));
+    }
+
     /**
      * Constructor that caches a stream of previously calculated neighborhoods.
      *
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.nn.item;
+
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import es.uam.eps.ir.ranksys.nn.item.ItemNeighborhoodRecommender;
+import es.uam.eps.ir.ranksys.nn.item.neighborhood.ItemNeighborhood;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import static java.lang.Math.pow;
+import static java.util.stream.IntStream.range;
+import org.ranksys.fast.utils.DenseAccumulator;
+
+/**
+ * Item-based nearest neighbors recommender whose neighborhoods are
+ * materialized as a sparse matrix in compressed sparse row (CSR) format with
+ * the weights already raised to the exponent q. The scores of a user are
+ * calculated as a sparse matrix-vector product into a per-thread dense
+ * accumulator from which the top-n items are selected directly, without
+ * intermediate maps. It produces the same recommendations as
+ * {@link ItemNeighborhoodRecommender}.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <U> type of the users
+ * @param <I> type of the items
+ */
+public class CSRItemNeighborhoodRecommender<U, I> extends ItemNeighborhoodRecommender<U, I> {
+
+    private final int[] rowPtr;
+    private final int[] colIdx;
+    private final double[] weights;
+
+    /**
+     * Constructor. Materializes the neighborhoods of all items.
+     *
+     * @param data preference data
+     * @param neighborhood item neighborhood
+     * @param q exponent of the similarity
+     */
+    public CSRItemNeighborhoodRecommender(FastPreferenceData<U, I> data, ItemNeighborhood<I> neighborhood, int q) {
+        super(data, neighborhood, q);
+
+        int n = data.numItems();
+        int[][] idxs = new int[n][];
+        double[][] ws = new double[n][];
+        range(0, n).parallel().forEach(iidx -> {
+            IntArrayList idxl = new IntArrayList();
+            DoubleArrayList wl = new DoubleArrayList();
+            neighborhood.getNeighbors(iidx).forEach(is -> {
+                idxl.add(is.idx);
+                wl.add(pow(is.v, q));
+            });
+            idxs[iidx] = idxl.toIntArray();
+            ws[iidx] = wl.toDoubleArray();
+        });
+
+        this.rowPtr = new int[n + 1];
+        for (int iidx = 0; iidx < n; iidx++) {
+            rowPtr[iidx + 1] = Math.addExact(rowPtr[iidx], idxs[iidx].length);
+        }
+        this.colIdx = new int[rowPtr[n]];
+        this.weights = new double[rowPtr[n]];
+        range(0, n).parallel().forEach(iidx -> {
+            System.arraycopy(idxs[iidx], 0, colIdx, rowPtr[iidx], idxs[iidx].length);
+            System.arraycopy(ws[iidx], 0, weights, rowPtr[iidx], ws[iidx].length);
+        });
+    }
+
+    /**
+     * Returns the number of non-zero entries of the sparse item-item matrix.
+     *
+     * @return number of stored neighbors
+     */
+    public int getNumNeighbors() {
+        return colIdx.length;
+    }
+
+    @Override
+    protected void getScores(int uidx, DenseAccumulator scores) {
+        if (data.useIteratorsPreferentially()) {
+            IntIterator iidxs = data.getUidxIidxs(uidx);
+            DoubleIterator ivs = data.getUidxVs(uidx);
+            while (iidxs.hasNext()) {
+                accumulate(scores, iidxs.nextInt(), ivs.nextDouble());
+            }
+        } else {
+            data.getUidxPreferences(uidx).forEach(jp -> accumulate(scores, jp.idx, jp.v));
+        }
+    }
+
+    @Override
+    protected void getScores(int uidx, boolean[] candidates, DenseAccumulator scores) {
+        if (data.useIteratorsPreferentially()) {
+            IntIterator iidxs = data.getUidxIidxs(uidx);
+            DoubleIterator ivs = data.getUidxVs(uidx);
+            while (iidxs.hasNext()) {
+                accumulate(scores, candidates, iidxs.nextInt(), ivs.nextDouble());
+            }
+        } else {
+            data.getUidxPreferences(uidx).forEach(jp -> accumulate(scores, candidates, jp.idx, jp.v));
+        }
+    }
+
+    private void accumulate(DenseAccumulator acc, int jidx, double jv) {
+        for (int p = rowPtr[jidx]; p < rowPtr[jidx + 1]; p++) {
+            acc.add(colIdx[p], weights[p] * jv);
+        }
+    }
+
+    private void accumulate(DenseAccumulator acc, boolean[] candidates, int jidx, double jv) {
+        for (int p = rowPtr[jidx]; p < rowPtr[jidx + 1]; p++) {
+            if (candidates[colIdx[p]]) {
+                acc.add(colIdx[p], weights[p] * jv);
+            }
+        }
+    }
+
+    @Override
+    public Int2DoubleMap getScoresMap(int uidx) {
+        return getScoresBuffer(uidx).toMap();
+    }
+}
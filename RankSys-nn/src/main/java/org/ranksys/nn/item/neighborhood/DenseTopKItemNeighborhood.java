@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.nn.item.neighborhood;
+
+import es.uam.eps.ir.ranksys.fast.index.FastItemIndex;
+import es.uam.eps.ir.ranksys.nn.item.neighborhood.ItemNeighborhood;
+import es.uam.eps.ir.ranksys.nn.neighborhood.CachedNeighborhood;
+import es.uam.eps.ir.ranksys.nn.sim.VectorSimilarity;
+
+/**
+ * Cached top-k item neighborhood calculated with the dense-block product of
+ * the preference matrix. Suitable for small catalogs with dense profiles. See
+ * {@link VectorSimilarity#getDenseBlockNeighborhoods(int, int, int)}.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <I> type of the items
+ */
+public class DenseTopKItemNeighborhood<I> extends ItemNeighborhood<I> {
+
+    /**
+     * Constructor with default block and tile sizes.
+     *
+     * @param iIndex fast item index
+     * @param sim vector similarity between items, i.e., one calculated on a
+     * {@link es.uam.eps.ir.ranksys.fast.preference.TransposedPreferenceData}
+     * @param k maximum size of neighborhood
+     */
+    public DenseTopKItemNeighborhood(FastItemIndex<I> iIndex, VectorSimilarity sim, int k) {
+        this(iIndex, sim, k, 128, 256);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param iIndex fast item index
+     * @param sim vector similarity between items, i.e., one calculated on a
+     * {@link es.uam.eps.ir.ranksys.fast.preference.TransposedPreferenceData}
+     * @param k maximum size of neighborhood
+     * @param blockSize number of items whose products are accumulated at once
+     * @param tileSize number of users in each tile of the product
+     */
+    public DenseTopKItemNeighborhood(FastItemIndex<I> iIndex, VectorSimilarity sim, int k, int blockSize, int tileSize) {
+        super(iIndex, new CachedNeighborhood(iIndex.numItems(), sim.getDenseBlockNeighborhoods(k, blockSize, tileSize)));
+    }
+}
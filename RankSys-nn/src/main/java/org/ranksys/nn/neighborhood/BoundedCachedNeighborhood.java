@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.nn.neighborhood;
+
+import es.uam.eps.ir.ranksys.fast.IdxDouble;
+import es.uam.eps.ir.ranksys.nn.neighborhood.Neighborhood;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+import static java.util.stream.IntStream.range;
+import java.util.stream.Stream;
+import static java.util.stream.Stream.empty;
+
+/**
+ * Bounded, concurrent cache of neighborhoods that are calculated on demand.
+ * Unlike {@link es.uam.eps.ir.ranksys.nn.neighborhood.CachedNeighborhood},
+ * which calculates the neighborhoods of all users/items in advance, this
+ * cache only keeps the most recently used ones, which makes it suitable for
+ * online serving when only a small fraction of the users is active.
+ * <br>
+ * The cache is split in segments, each with its own lock and least recently
+ * used (LRU) eviction policy. The capacity is either the number of cached
+ * neighborhoods or, if weighted, the total number of cached neighbors (empty
+ * neighborhoods count as one).
+ * Concurrent misses for the same user/item are coalesced so that its
+ * neighborhood is calculated only once.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public class BoundedCachedNeighborhood implements Neighborhood {
+
+    private static final int DEFAULT_SEGMENTS = 16;
+
+    private final Neighborhood neighborhood;
+    private final boolean weighted;
+    private final Segment[] segments;
+    private final int shift;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder coalescedMisses;
+    private final LongAdder evictions;
+
+    /**
+     * Constructor with default number of segments.
+     *
+     * @param neighborhood neighborhood whose results are cached
+     * @param capacity maximum number of neighborhoods, or of neighbors if weighted
+     * @param weighted true to bound the total number of cached neighbors,
+     * false to bound the number of cached neighborhoods
+     */
+    public BoundedCachedNeighborhood(Neighborhood neighborhood, long capacity, boolean weighted) {
+        this(neighborhood, capacity, weighted, DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param neighborhood neighborhood whose results are cached
+     * @param capacity maximum number of neighborhoods, or of neighbors if weighted
+     * @param weighted true to bound the total number of cached neighbors,
+     * false to bound the number of cached neighborhoods
+     * @param numSegments number of independently locked segments, rounded up
+     * to a power of two and reduced, if needed, so that it does not exceed the
+     * capacity
+     */
+    public BoundedCachedNeighborhood(Neighborhood neighborhood, long capacity, boolean weighted, int numSegments) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, numSegments) - 1);
+        while ((1L << bits) > capacity) {
+            bits--;
+        }
+        int n = 1 << bits;
+
+        this.neighborhood = neighborhood;
+        this.weighted = weighted;
+        this.segments = new Segment[n];
+        this.shift = 32 - bits;
+        long segmentCapacity = capacity / n;
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.coalescedMisses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /**
+     * Returns the neighborhood of a user/index, calculating it if it is not
+     * in the cache.
+     *
+     * @param idx user/index whose neighborhood is calculated
+     * @return stream of user/item-similarity pairs.
+     */
+    @Override
+    public Stream<IdxDouble> getNeighbors(int idx) {
+        if (idx < 0) {
+            return empty();
+        }
+        Entry e = get(idx);
+        return range(0, e.idxs.length).mapToObj(i -> new IdxDouble(e.idxs[i], e.vs[i]));
+    }
+
+    private Entry get(int idx) {
+        Segment segment = segment(idx);
+
+        FutureTask<Entry> task;
+        boolean owner = false;
+        synchronized (segment) {
+            Entry e = segment.entries.getAndMoveToLast(idx);
+            if (e != null) {
+                hits.increment();
+                return e;
+            }
+            task = segment.pending.get(idx);
+            if (task == null) {
+                task = new FutureTask<>(() -> calculate(idx));
+                segment.pending.put(idx, task);
+                owner = true;
+                misses.increment();
+            } else {
+                coalescedMisses.increment();
+            }
+        }
+
+        if (owner) {
+            task.run();
+        }
+
+        Entry e;
+        try {
+            e = task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        } catch (ExecutionException ex) {
+            if (owner) {
+                synchronized (segment) {
+                    if (segment.pending.get(idx) == task) {
+                        segment.pending.remove(idx);
+                    }
+                }
+            }
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+
+        // the task is no longer pending if it was invalidated while running
+        if (owner) {
+            synchronized (segment) {
+                if (segment.pending.get(idx) == task) {
+                    segment.pending.remove(idx);
+                    segment.put(idx, e);
+                }
+            }
+        }
+
+        return e;
+    }
+
+    private Entry calculate(int idx) {
+        IntArrayList idxl = new IntArrayList();
+        DoubleArrayList siml = new DoubleArrayList();
+        neighborhood.getNeighbors(idx).forEach(is -> {
+            idxl.add(is.idx);
+            siml.add(is.v);
+        });
+        return new Entry(idxl.toIntArray(), siml.toDoubleArray());
+    }
+
+    private Segment segment(int idx) {
+        return segments[shift == 32 ? 0 : (idx * 0x9E3779B9) >>> shift];
+    }
+
+    /**
+     * Removes the neighborhood of a user/item from the cache, e.g., after its
+     * preferences have changed. A calculation of the neighborhood in progress
+     * is not cached when it finishes.
+     *
+     * @param idx user/item index
+     */
+    public void invalidate(int idx) {
+        Segment segment = segment(idx);
+        synchronized (segment) {
+            segment.pending.remove(idx);
+            Entry e = segment.entries.remove(idx);
+            if (e != null) {
+                segment.weight -= e.weight;
+            }
+        }
+    }
+
+    /**
+     * Removes all the neighborhoods from the cache, including those being
+     * calculated. Statistics are kept.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.pending.clear();
+                segment.entries.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached neighborhoods.
+     *
+     * @return number of cached neighborhoods
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the total weight of the cached neighborhoods: their number or,
+     * if weighted, the total number of cached neighbors.
+     *
+     * @return total weight of the cache
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Returns the number of requests served from the cache.
+     *
+     * @return number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of requests that required the calculation of a
+     * neighborhood.
+     *
+     * @return number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of requests that missed the cache but waited for the
+     * calculation of a concurrent request for the same user/item.
+     *
+     * @return number of coalesced misses
+     */
+    public long getCoalescedMisses() {
+        return coalescedMisses.sum();
+    }
+
+    /**
+     * Returns the number of neighborhoods evicted from the cache.
+     *
+     * @return number of evictions
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private static class Entry {
+
+        private final int[] idxs;
+        private final double[] vs;
+        private long weight;
+
+        public Entry(int[] idxs, double[] vs) {
+            this.idxs = idxs;
+            this.vs = vs;
+        }
+    }
+
+    private class Segment {
+
+        private final long capacity;
+        private final Int2ObjectLinkedOpenHashMap<Entry> entries;
+        private final Int2ObjectOpenHashMap<FutureTask<Entry>> pending;
+        private long weight;
+
+        public Segment(long capacity) {
+            this.capacity = capacity;
+            this.entries = new Int2ObjectLinkedOpenHashMap<>();
+            this.pending = new Int2ObjectOpenHashMap<>();
+            this.weight = 0;
+        }
+
+        public void put(int idx, Entry e) {
+            e.weight = weighted ? Math.max(1, e.idxs.length) : 1;
+            Entry old = entries.putAndMoveToLast(idx, e);
+            if (old != null) {
+                weight -= old.weight;
+            }
+            weight += e.weight;
+            while (weight > capacity && entries.size() > 1) {
+                Entry evicted = entries.removeFirst();
+                weight -= evicted.weight;
+                evictions.increment();
+            }
+        }
+    }
+}
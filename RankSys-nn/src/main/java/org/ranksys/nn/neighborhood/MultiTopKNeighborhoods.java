@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.nn.neighborhood;
+
+import es.uam.eps.ir.ranksys.fast.IdxDouble;
+import es.uam.eps.ir.ranksys.fast.IdxObject;
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import es.uam.eps.ir.ranksys.fast.preference.TransposedPreferenceData;
+import es.uam.eps.ir.ranksys.fast.utils.topn.IntDoubleTopN;
+import es.uam.eps.ir.ranksys.nn.item.neighborhood.ItemNeighborhood;
+import es.uam.eps.ir.ranksys.nn.neighborhood.CachedNeighborhood;
+import es.uam.eps.ir.ranksys.nn.neighborhood.Neighborhood;
+import es.uam.eps.ir.ranksys.nn.user.neighborhood.UserNeighborhood;
+import it.unimi.dsi.fastutil.doubles.DoubleIterator;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import static java.lang.Math.pow;
+import java.util.ArrayList;
+import java.util.List;
+import static java.util.stream.IntStream.range;
+import static org.ranksys.nn.neighborhood.NeighborhoodScheduler.coOccurrenceCost;
+
+/**
+ * Top-k neighborhoods for several similarity functions calculated in a single
+ * pass over the preference data. The intersection sizes and inner products of
+ * each user/item with the rest are accumulated at once, and then every
+ * similarity function is evaluated on them to feed its own top-k heap. This
+ * way, comparing several similarities (e.g., in a hyper-parameter sweep)
+ * costs a single co-occurrence scan instead of one per similarity.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public class MultiTopKNeighborhoods {
+
+    /**
+     * Similarity function in terms of the statistics accumulated for each
+     * pair of users/items.
+     */
+    @FunctionalInterface
+    public interface SimilarityFunction {
+
+        /**
+         * Calculates the similarity value.
+         *
+         * @param intersectionSize size of the intersection of the profiles as sets
+         * @param product inner product of the profiles as vectors
+         * @param na size of the first profile
+         * @param nb size of the second profile
+         * @param norm2A square of the norm of the first profile
+         * @param norm2B square of the norm of the second profile
+         * @return similarity value
+         */
+        double sim(int intersectionSize, double product, int na, int nb, double norm2A, double norm2B);
+    }
+
+    /**
+     * Set Jaccard similarity, as in
+     * {@link es.uam.eps.ir.ranksys.nn.sim.SetJaccardSimilarity}.
+     *
+     * @return similarity function
+     */
+    public static SimilarityFunction setJaccard() {
+        return (c, p, na, nb, n2a, n2b) -> c / (double) (na + nb - c);
+    }
+
+    /**
+     * Set cosine similarity, as in
+     * {@link es.uam.eps.ir.ranksys.nn.sim.SetCosineSimilarity}.
+     *
+     * @param alpha asymmetry factor, 0.5 for standard cosine
+     * @return similarity function
+     */
+    public static SimilarityFunction setCosine(double alpha) {
+        return (c, p, na, nb, n2a, n2b) -> c / (pow(na, alpha) * pow(nb, 1.0 - alpha));
+    }
+
+    /**
+     * Vector cosine similarity, as in
+     * {@link es.uam.eps.ir.ranksys.nn.sim.VectorCosineSimilarity}.
+     *
+     * @param alpha asymmetry factor, 0.5 for standard cosine
+     * @return similarity function
+     */
+    public static SimilarityFunction vectorCosine(double alpha) {
+        return (c, p, na, nb, n2a, n2b) -> p / (pow(n2a, alpha) * pow(n2b, 1.0 - alpha));
+    }
+
+    /**
+     * Vector Jaccard similarity, as in
+     * {@link es.uam.eps.ir.ranksys.nn.sim.VectorJaccardSimilarity}.
+     *
+     * @return similarity function
+     */
+    public static SimilarityFunction vectorJaccard() {
+        return (c, p, na, nb, n2a, n2b) -> p / (n2a + n2b - p);
+    }
+
+    private final FastPreferenceData<?, ?> data;
+    private final int k;
+    private final SimilarityFunction[] functions;
+    private final int[][][] neighbors;
+    private final double[][][] sims;
+
+    /**
+     * Constructor. Calculates the neighborhoods of the users of the preference
+     * data, use a {@link TransposedPreferenceData} for items.
+     *
+     * @param data preference data
+     * @param k maximum size of the neighborhoods
+     * @param functions similarity functions
+     */
+    public MultiTopKNeighborhoods(FastPreferenceData<?, ?> data, int k, List<SimilarityFunction> functions) {
+        this.data = data;
+        this.k = k;
+        this.functions = functions.toArray(new SimilarityFunction[functions.size()]);
+
+        int n = data.numUsers();
+        int nf = this.functions.length;
+        this.neighbors = new int[nf][n][];
+        this.sims = new double[nf][n][];
+
+        double[] norm2 = new double[n];
+        range(0, n).parallel().forEach(idx -> norm2[idx] = data.getUidxPreferences(idx).mapToDouble(iv -> iv.v * iv.v).sum());
+
+        ThreadLocal<Accumulator> accumulators = ThreadLocal.withInitial(() -> new Accumulator(n));
+        new NeighborhoodScheduler(coOccurrenceCost(data)).forEach(n, idx -> calculate(idx, accumulators.get(), norm2));
+    }
+
+    private void calculate(int idx, Accumulator acc, double[] norm2) {
+        if (data.useIteratorsPreferentially()) {
+            IntIterator iidxs = data.getUidxIidxs(idx);
+            DoubleIterator ivs = data.getUidxVs(idx);
+            while (iidxs.hasNext()) {
+                int iidx = iidxs.nextInt();
+                double iv = ivs.nextDouble();
+                IntIterator vidxs = data.getIidxUidxs(iidx);
+                DoubleIterator vvs = data.getIidxVs(iidx);
+                while (vidxs.hasNext()) {
+                    acc.add(vidxs.nextInt(), iv * vvs.nextDouble());
+                }
+            }
+        } else {
+            data.getUidxPreferences(idx).forEach(ip -> {
+                data.getIidxPreferences(ip.idx).forEach(up -> acc.add(up.idx, ip.v * up.v));
+            });
+        }
+
+        int na = data.numItems(idx);
+        double n2a = norm2[idx];
+        IntDoubleTopN[] topNs = new IntDoubleTopN[functions.length];
+        double[] mins = new double[functions.length];
+        for (int f = 0; f < functions.length; f++) {
+            topNs[f] = new IntDoubleTopN(k);
+            mins[f] = Double.NEGATIVE_INFINITY;
+        }
+        for (int i = 0; i < acc.size; i++) {
+            int vidx = acc.touched[i];
+            if (vidx == idx) {
+                continue;
+            }
+            int c = acc.intersection[vidx];
+            double p = acc.product[vidx];
+            int nb = data.numItems(vidx);
+            double n2b = norm2[vidx];
+            for (int f = 0; f < functions.length; f++) {
+                double v = functions[f].sim(c, p, na, nb, n2a, n2b);
+                if (!(v < mins[f]) && topNs[f].add(vidx, v) && topNs[f].size() == k) {
+                    mins[f] = topNs[f].peek().getDoubleValue();
+                }
+            }
+        }
+        acc.clear();
+
+        for (int f = 0; f < functions.length; f++) {
+            IntDoubleTopN topN = topNs[f];
+            topN.sort();
+            int[] idxs = new int[topN.size()];
+            double[] vs = new double[topN.size()];
+            int[] j = {0};
+            topN.reverseStream().forEach(e -> {
+                idxs[j[0]] = e.getIntKey();
+                vs[j[0]] = e.getDoubleValue();
+                j[0]++;
+            });
+            neighbors[f][idx] = idxs;
+            sims[f][idx] = vs;
+        }
+    }
+
+    /**
+     * Returns the number of similarity functions.
+     *
+     * @return number of calculated neighborhoods
+     */
+    public int size() {
+        return functions.length;
+    }
+
+    /**
+     * Returns the neighborhood of a similarity function.
+     *
+     * @param f index of the similarity function in the list of the constructor
+     * @return cached neighborhood
+     */
+    public Neighborhood getNeighborhood(int f) {
+        int[][] fNeighbors = neighbors[f];
+        double[][] fSims = sims[f];
+        return new CachedNeighborhood(fNeighbors.length, range(0, fNeighbors.length)
+                .mapToObj(idx -> new IdxObject<>(idx, range(0, fNeighbors[idx].length)
+                        .mapToObj(i -> new IdxDouble(fNeighbors[idx][i], fSims[idx][i])))));
+    }
+
+    /**
+     * Calculates user neighborhoods for several similarity functions.
+     *
+     * @param <U> type of the users
+     * @param data preference data
+     * @param k maximum size of the neighborhoods
+     * @param functions similarity functions
+     * @return list of user neighborhoods, one per similarity function
+     */
+    public static <U> List<UserNeighborhood<U>> userNeighborhoods(FastPreferenceData<U, ?> data, int k, List<SimilarityFunction> functions) {
+        MultiTopKNeighborhoods multi = new MultiTopKNeighborhoods(data, k, functions);
+        List<UserNeighborhood<U>> list = new ArrayList<>(multi.size());
+        for (int f = 0; f < multi.size(); f++) {
+            list.add(new UserNeighborhood<U>(data, multi.getNeighborhood(f)) {
+            });
+        }
+        return list;
+    }
+
+    /**
+     * Calculates item neighborhoods for several similarity functions.
+     *
+     * @param <I> type of the items
+     * @param data preference data
+     * @param k maximum size of the neighborhoods
+     * @param functions similarity functions
+     * @return list of item neighborhoods, one per similarity function
+     */
+    public static <I> List<ItemNeighborhood<I>> itemNeighborhoods(FastPreferenceData<?, I> data, int k, List<SimilarityFunction> functions) {
+        MultiTopKNeighborhoods multi = new MultiTopKNeighborhoods(new TransposedPreferenceData<>(data), k, functions);
+        List<ItemNeighborhood<I>> list = new ArrayList<>(multi.size());
+        for (int f = 0; f < multi.size(); f++) {
+            list.add(new ItemNeighborhood<I>(data, multi.getNeighborhood(f)) {
+            });
+        }
+        return list;
+    }
+
+    private static class Accumulator {
+
+        private final int[] intersection;
+        private final double[] product;
+        private final int[] touched;
+        private int size;
+
+        public Accumulator(int n) {
+            this.intersection = new int[n];
+            this.product = new double[n];
+            this.touched = new int[n];
+            this.size = 0;
+        }
+
+        public void add(int idx, double p) {
+            if (intersection[idx]++ == 0) {
+                touched[size++] = idx;
+            }
+            product[idx] += p;
+        }
+
+        public void clear() {
+            for (int i = 0; i < size; i++) {
+                int idx = touched[i];
+                intersection[idx] = 0;
+                product[idx] = 0.0;
+            }
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.nn.neighborhood;
+
+import es.uam.eps.ir.ranksys.fast.preference.FastPreferenceData;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.IntToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static java.util.stream.IntStream.range;
+
+/**
+ * Cost-balanced scheduler for the calculation of neighborhoods. The cost of
+ * calculating the neighborhood of a user/item is roughly proportional to the
+ * number of co-occurrences it has, which is heavily skewed in most datasets.
+ * Instead of splitting the range of indices in chunks of equal size, as
+ * parallel streams do, this scheduler splits it in chunks of equal estimated
+ * cost that are processed by a work-stealing fork-join pool.
+ * <br>
+ * The scheduler logs the progress of the calculation and keeps the time spent
+ * in every user/item of the last run.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ */
+public class NeighborhoodScheduler {
+
+    private static final Logger LOG = Logger.getLogger(NeighborhoodScheduler.class.getName());
+
+    private static final int CHUNKS_PER_THREAD = 16;
+    private static final int PROGRESS_STEPS = 10;
+
+    private final IntToLongFunction cost;
+    private final ForkJoinPool pool;
+    private long[] times;
+
+    /**
+     * Constructor that uses the common fork-join pool.
+     *
+     * @param cost estimated cost of calculating the neighborhood of each user/item
+     */
+    public NeighborhoodScheduler(IntToLongFunction cost) {
+        this(cost, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param cost estimated cost of calculating the neighborhood of each user/item
+     * @param pool fork-join pool where the calculations are run
+     */
+    public NeighborhoodScheduler(IntToLongFunction cost, ForkJoinPool pool) {
+        this.cost = cost;
+        this.pool = pool;
+        this.times = new long[0];
+    }
+
+    /**
+     * Estimates the cost of calculating the similarities of a user as the
+     * number of co-occurrences with other users, that is, the sum of the
+     * popularity of the items in the user's profile. For items, use a
+     * {@link es.uam.eps.ir.ranksys.fast.preference.TransposedPreferenceData}.
+     *
+     * @param data preference data
+     * @return cost function
+     */
+    public static IntToLongFunction coOccurrenceCost(FastPreferenceData<?, ?> data) {
+        if (data.useIteratorsPreferentially()) {
+            return uidx -> {
+                long c = 0;
+                IntIterator iidxs = data.getUidxIidxs(uidx);
+                while (iidxs.hasNext()) {
+                    c += data.numUsers(iidxs.nextInt());
+                }
+                return c;
+            };
+        } else {
+            return uidx -> data.getUidxPreferences(uidx)
+                    .mapToLong(iv -> data.numUsers(iv.idx))
+                    .sum();
+        }
+    }
+
+    /**
+     * Runs an action for every user/item in parallel, balancing the load
+     * between threads according to the estimated cost of each element.
+     *
+     * @param n number of users/items
+     * @param action action to be performed for each index
+     */
+    public void forEach(int n, IntConsumer action) {
+        if (n == 0) {
+            this.times = new long[0];
+            return;
+        }
+
+        long[] cum = new long[n + 1];
+        long[] c = new long[n];
+        range(0, n).parallel().forEach(idx -> c[idx] = cost.applyAsLong(idx) + 1);
+        for (int idx = 0; idx < n; idx++) {
+            cum[idx + 1] = cum[idx] + c[idx];
+        }
+
+        long total = cum[n];
+        long grain = Math.max(1, total / (pool.getParallelism() * CHUNKS_PER_THREAD));
+        long[] elementTimes = new long[n];
+        Progress progress = new Progress(total);
+
+        long time0 = System.nanoTime();
+        pool.invoke(new Task(0, n, cum, grain, action, elementTimes, progress));
+        long time1 = System.nanoTime() - time0;
+
+        this.times = elementTimes;
+
+        int slowest = 0;
+        for (int idx = 1; idx < n; idx++) {
+            if (elementTimes[idx] > elementTimes[slowest]) {
+                slowest = idx;
+            }
+        }
+        int s = slowest;
+        LOG.log(Level.INFO, String.format("neighborhoods n = %d t = %.2fs", n, time1 / 1_000_000_000.0));
+        LOG.log(Level.FINE, () -> String.format("slowest idx = %d t = %.4fs cost = %d", s, elementTimes[s] / 1_000_000_000.0, c[s]));
+    }
+
+    /**
+     * Returns the time, in nanoseconds, spent in each user/item in the last
+     * run of the scheduler.
+     *
+     * @return array of times by index
+     */
+    public long[] getElementTimes() {
+        return times;
+    }
+
+    private static class Progress {
+
+        private final long total;
+        private final AtomicLong done;
+        private final AtomicInteger reported;
+
+        public Progress(long total) {
+            this.total = total;
+            this.done = new AtomicLong();
+            this.reported = new AtomicInteger();
+        }
+
+        public void add(long c) {
+            long d = done.addAndGet(c);
+            int step = (int) (d * PROGRESS_STEPS / total);
+            int r = reported.get();
+            if (step > r && reported.compareAndSet(r, step)) {
+                LOG.log(Level.INFO, String.format("neighborhoods %3d%%", step * 100 / PROGRESS_STEPS));
+            }
+        }
+    }
+
+    private static class Task extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+        private final long[] cum;
+        private final long grain;
+        private final IntConsumer action;
+        private final long[] times;
+        private final Progress progress;
+
+        public Task(int lo, int hi, long[] cum, long grain, IntConsumer action, long[] times, Progress progress) {
+            this.lo = lo;
+            this.hi = hi;
+            this.cum = cum;
+            this.grain = grain;
+            this.action = action;
+            this.times = times;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= 1 || cum[hi] - cum[lo] <= grain) {
+                for (int idx = lo; idx < hi; idx++) {
+                    long time0 = System.nanoTime();
+                    action.accept(idx);
+                    times[idx] = System.nanoTime() - time0;
+                }
+                progress.add(cum[hi] - cum[lo]);
+            } else {
+                int mid = split();
+                invokeAll(new Task(lo, mid, cum, grain, action, times, progress),
+                        new Task(mid, hi, cum, grain, action, times, progress));
+            }
+        }
+
+        private int split() {
+            long half = (cum[lo] + cum[hi]) / 2;
+            int a = lo + 1;
+            int b = hi - 1;
+            while (a < b) {
+                int m = (a + b) >>> 1;
+                if (cum[m] < half) {
+                    a = m + 1;
+                } else {
+                    b = m;
+                }
+            }
+            return a;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.nn.user.neighborhood;
+
+import es.uam.eps.ir.ranksys.nn.user.neighborhood.UserNeighborhood;
+import org.ranksys.nn.neighborhood.BoundedCachedNeighborhood;
+
+/**
+ * User neighborhood with a bounded cache of the neighborhoods of the most
+ * recently active users. See {@link BoundedCachedNeighborhood}.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <U> type of the users
+ */
+public class BoundedCachedUserNeighborhood<U> extends UserNeighborhood<U> {
+
+    private final BoundedCachedNeighborhood cache;
+
+    /**
+     * Constructor.
+     *
+     * @param neighborhood user neighborhood to be cached
+     * @param capacity maximum number of neighborhoods, or of neighbors if weighted
+     * @param weighted true to bound the total number of cached neighbors,
+     * false to bound the number of cached neighborhoods
+     */
+    public BoundedCachedUserNeighborhood(UserNeighborhood<U> neighborhood, long capacity, boolean weighted) {
+        this(neighborhood, new BoundedCachedNeighborhood(neighborhood, capacity, weighted));
+    }
+
+    private BoundedCachedUserNeighborhood(UserNeighborhood<U> neighborhood, BoundedCachedNeighborhood cache) {
+        super(neighborhood, cache);
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the underlying cache, e.g., to invalidate users or to check its
+     * hit, miss and eviction statistics.
+     *
+     * @return cache of neighborhoods
+     */
+    public BoundedCachedNeighborhood getCache() {
+        return cache;
+    }
+}
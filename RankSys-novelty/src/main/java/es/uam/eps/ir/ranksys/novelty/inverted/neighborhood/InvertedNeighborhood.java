@@ -9,13 +9,17 @@
 package es.uam.eps.ir.ranksys.novelty.inverted.neighborhood;
 
 import es.uam.eps.ir.ranksys.fast.IdxDouble;
-import es.uam.eps.ir.ranksys.fast.IdxObject;
 import es.uam.eps.ir.ranksys.nn.neighborhood.Neighborhood;
+import static it.unimi.dsi.fastutil.Arrays.quickSort;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.function.IntPredicate;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import org.ranksys.nn.neighborhood.NeighborhoodScheduler;
 
 /**
  * Inverted neighborhood.
@@ -27,8 +31,9 @@ import java.util.stream.Stream;
  */
 public class InvertedNeighborhood implements Neighborhood {
 
-    private final IntArrayList[] idxla;
-    private final DoubleArrayList[] simla;
+    private final int[] offsets;
+    private final int[] idxs;
+    private final double[] sims;
 
     /**
      * Constructor.
@@ -39,23 +44,77 @@ public class InvertedNeighborhood implements Neighborhood {
      * neighborhood
      */
     public InvertedNeighborhood(int n, Neighborhood neighborhood, IntPredicate filter) {
-        this.idxla = new IntArrayList[n];
-        this.simla = new DoubleArrayList[n];
+        this(n, filter, Forward.parallel(n, neighborhood));
+    }
+
+    /**
+     * Constructor that calculates the original neighborhoods balancing the
+     * load between threads with a scheduler.
+     *
+     * @param n number of users/items
+     * @param neighborhood original neighborhood to be inverted
+     * @param filter filter to determine the users that require an inverted
+     * neighborhood
+     * @param scheduler cost-balanced scheduler of the calculations
+     */
+    public InvertedNeighborhood(int n, Neighborhood neighborhood, IntPredicate filter, NeighborhoodScheduler scheduler) {
+        this(n, filter, Forward.scheduled(n, neighborhood, scheduler));
+    }
+
+    /**
+     * Inverts the original neighborhoods in two parallel passes: the
+     * in-degrees of the users/items are counted with shared atomic counters
+     * and summed into the offsets of flat arrays, where the neighbors are
+     * then scattered with atomic cursors. Each inverted neighborhood is finally
+     * sorted by index, so that the result does not depend on the scheduling.
+     */
+    private InvertedNeighborhood(int n, IntPredicate filter, Forward forward) {
+        boolean[] accepted = new boolean[n];
+        IntStream.range(0, n).parallel().forEach(idx -> accepted[idx] = filter.test(idx));
 
-        IntStream.range(0, n).parallel().filter(filter).forEach(idx -> {
-            this.idxla[idx] = new IntArrayList();
-            this.simla[idx] = new DoubleArrayList();
+        AtomicIntegerArray counts = new AtomicIntegerArray(n);
+        IntStream.range(0, n).parallel().forEach(idx -> {
+            for (int vidx : forward.idxs[idx]) {
+                if (accepted[vidx]) {
+                    counts.incrementAndGet(vidx);
+                }
+            }
+        });
+
+        this.offsets = new int[n + 1];
+        for (int idx = 0; idx < n; idx++) {
+            offsets[idx + 1] = Math.addExact(offsets[idx], counts.get(idx));
+        }
+        this.idxs = new int[offsets[n]];
+        this.sims = new double[offsets[n]];
+
+        AtomicIntegerArray cursors = new AtomicIntegerArray(Arrays.copyOf(offsets, n));
+        IntStream.range(0, n).parallel().forEach(idx -> {
+            int[] nidxs = forward.idxs[idx];
+            double[] nsims = forward.sims[idx];
+            for (int j = 0; j < nidxs.length; j++) {
+                int vidx = nidxs[j];
+                if (accepted[vidx]) {
+                    int pos = cursors.getAndIncrement(vidx);
+                    idxs[pos] = idx;
+                    sims[pos] = nsims[j];
+                }
+            }
         });
 
-        IntStream.range(0, n).parallel().mapToObj(idx -> {
-            return new IdxObject<>(idx, neighborhood.getNeighbors(idx));
-        }).forEachOrdered(in -> {
-            int idx = in.idx;
-            in.v.forEach(is -> {
-                if (this.idxla[is.idx] != null) {
-                    this.idxla[is.idx].add(idx);
-                    this.simla[is.idx].add(is.v);
+        IntStream.range(0, n).parallel().forEach(idx -> {
+            quickSort(offsets[idx], offsets[idx + 1], new AbstractIntComparator() {
+                @Override
+                public int compare(int i, int j) {
+                    return Integer.compare(idxs[i], idxs[j]);
                 }
+            }, (i, j) -> {
+                int ti = idxs[i];
+                idxs[i] = idxs[j];
+                idxs[j] = ti;
+                double tv = sims[i];
+                sims[i] = sims[j];
+                sims[j] = tv;
             });
         });
     }
@@ -68,9 +127,40 @@ public class InvertedNeighborhood implements Neighborhood {
      */
     @Override
     public Stream<IdxDouble> getNeighbors(int idx) {
-        IntArrayList idxl = idxla[idx];
-        DoubleArrayList siml = simla[idx];
-        return IntStream.range(0, idxl.size()).mapToObj(i -> new IdxDouble(idxl.getInt(i), siml.getDouble(i)));
+        return IntStream.range(offsets[idx], offsets[idx + 1]).mapToObj(i -> new IdxDouble(idxs[i], sims[i]));
     }
 
+    private static class Forward {
+
+        private final int[][] idxs;
+        private final double[][] sims;
+
+        public Forward(int n) {
+            this.idxs = new int[n][];
+            this.sims = new double[n][];
+        }
+
+        public static Forward parallel(int n, Neighborhood neighborhood) {
+            Forward forward = new Forward(n);
+            IntStream.range(0, n).parallel().forEach(idx -> forward.calculate(idx, neighborhood));
+            return forward;
+        }
+
+        public static Forward scheduled(int n, Neighborhood neighborhood, NeighborhoodScheduler scheduler) {
+            Forward forward = new Forward(n);
+            scheduler.forEach(n, idx -> forward.calculate(idx, neighborhood));
+            return forward;
+        }
+
+        private void calculate(int idx, Neighborhood neighborhood) {
+            IntArrayList idxl = new IntArrayList();
+            DoubleArrayList siml = new DoubleArrayList();
+            neighborhood.getNeighbors(idx).forEach(is -> {
+                idxl.add(is.idx);
+                siml.add(is.v);
+            });
+            idxs[idx] = idxl.toIntArray();
+            sims[idx] = siml.toDoubleArray();
+        }
+    }
 }
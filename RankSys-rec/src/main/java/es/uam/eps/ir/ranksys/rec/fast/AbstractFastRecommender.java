@@ -14,16 +14,25 @@ import es.uam.eps.ir.ranksys.core.Recommendation;
 import es.uam.eps.ir.ranksys.fast.FastRecommendation;
 import es.uam.eps.ir.ranksys.fast.index.FastItemIndex;
 import es.uam.eps.ir.ranksys.fast.index.FastUserIndex;
+import es.uam.eps.ir.ranksys.fast.utils.topn.IntDoubleTopN;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.function.IntPredicate;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * Abstract (fast) recommender. It implements the free and candidate-based 
  * recommendation methods as variants of the filter recommendation.
+ * Recommenders that can score a set of candidate items without scoring the
+ * whole catalog should override {@link #getRecommendation(int, IntStream)},
+ * which is also used for candidates identified by their ids.
  *
  * @author Saúl Vargas (saul.vargas@uam.es)
  * 
@@ -94,7 +103,29 @@ public abstract class AbstractFastRecommender<U, I> extends AbstractRecommender<
     public Recommendation<U, I> getRecommendation(U u, int maxLength, Predicate<I> filter) {
         FastRecommendation rec = getRecommendation(user2uidx(u), maxLength, iidx -> filter.test(iidx2item(iidx)));
 
-        return new Recommendation<>(uidx2user(rec.getUidx()), rec.getIidxs().stream().map(iv -> new IdDouble<>(iidx2item(iv.idx), iv.v)).collect(Collectors.toList()));
+        return new Recommendation<>(uidx2user(rec.getUidx()), toItems(rec));
+    }
+
+    @Override
+    public Recommendation<U, I> getRecommendation(U u, Stream<I> candidates) {
+        Set<I> set = candidates.collect(Collectors.toCollection(() -> new HashSet<>()));
+        FastRecommendation rec = getRecommendation(user2uidx(u), set.stream().mapToInt(i -> item2iidx(i)));
+        List<IdDouble<I>> items = toItems(rec);
+        items.forEach(is -> set.remove(is.id));
+        set.stream().sorted().forEach(i -> items.add(new IdDouble<>(i, Double.NaN)));
+
+        return new Recommendation<>(u, items);
+    }
+
+    private List<IdDouble<I>> toItems(FastRecommendation rec) {
+        int[] iidxs = rec.getIidxArray();
+        double[] vs = rec.getScoreArray();
+        List<IdDouble<I>> items = new ArrayList<>(iidxs.length);
+        for (int j = 0; j < iidxs.length; j++) {
+            items.add(new IdDouble<>(iidx2item(iidxs[j]), vs[j]));
+        }
+
+        return items;
     }
 
     @Override
@@ -107,4 +138,26 @@ public abstract class AbstractFastRecommender<U, I> extends AbstractRecommender<
 
         return getRecommendation(uidx, 0, item -> set.contains(item));
     }
+
+    /**
+     * Sorts a heap of item-score pairs and copies them into an array-backed
+     * recommendation, by decreasing score.
+     *
+     * @param uidx index of the user
+     * @param topN heap of item-score pairs
+     * @return fast recommendation
+     */
+    protected static FastRecommendation toRecommendation(int uidx, IntDoubleTopN topN) {
+        topN.sort();
+
+        int n = topN.size();
+        int[] iidxs = new int[n];
+        double[] vs = new double[n];
+        for (int j = 0; j < n; j++) {
+            iidxs[j] = topN.getIntAt(n - 1 - j);
+            vs[j] = topN.getDoubleAt(n - 1 - j);
+        }
+
+        return new FastRecommendation(uidx, iidxs, vs);
+    }
 }
@@ -9,19 +9,24 @@
 package es.uam.eps.ir.ranksys.rec.fast;
 
 import es.uam.eps.ir.ranksys.fast.utils.topn.IntDoubleTopN;
-import es.uam.eps.ir.ranksys.fast.IdxDouble;
 import es.uam.eps.ir.ranksys.fast.FastRecommendation;
 import es.uam.eps.ir.ranksys.fast.index.FastItemIndex;
 import es.uam.eps.ir.ranksys.fast.index.FastUserIndex;
 import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.function.IntPredicate;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.ranksys.fast.utils.DenseAccumulator;
 
 /**
  * Recommender for top-n recommendations. It selects and orders the items whose
  * predicted scores are among the n greatest.
+ * <br>
+ * Scores are written into a per-thread {@link DenseAccumulator} that is reused
+ * between users. Subclasses that can calculate their scores directly into the
+ * buffer should override {@link #getScores(int, DenseAccumulator)} to avoid
+ * the intermediate map of {@link #getScoresMap(int)}, and
+ * {@link #getScores(int, boolean[], DenseAccumulator)} to score only the
+ * candidate items of {@link #getRecommendation(int, IntStream)}.
  *
  * @author Saúl Vargas (saul.vargas@uam.es)
  * 
@@ -30,6 +35,9 @@ import java.util.stream.Collectors;
  */
 public abstract class FastRankingRecommender<U, I> extends AbstractFastRecommender<U, I> {
 
+    private final ThreadLocal<DenseAccumulator> buffers;
+    private final ThreadLocal<boolean[]> masks;
+
     /**
      * Constructor.
      *
@@ -38,36 +46,121 @@ public abstract class FastRankingRecommender<U, I> extends AbstractFastRecommend
      */
     public FastRankingRecommender(FastUserIndex<U> uIndex, FastItemIndex<I> iIndex) {
         super(uIndex, iIndex);
+        this.buffers = ThreadLocal.withInitial(() -> new DenseAccumulator(iIndex.numItems()));
+        this.masks = ThreadLocal.withInitial(() -> new boolean[iIndex.numItems()]);
     }
 
     @Override
     public FastRecommendation getRecommendation(int uidx, int maxLength, IntPredicate filter) {
         if (uidx == -1) {
-            return new FastRecommendation(uidx, new ArrayList<>(0));
+            return new FastRecommendation(uidx, new int[0], new double[0]);
         }
 
-        Int2DoubleMap scoresMap = getScoresMap(uidx);
+        DenseAccumulator scores = getScoresBuffer(uidx);
 
         if (maxLength == 0) {
-            maxLength = scoresMap.size();
+            maxLength = scores.size();
+        }
+
+        IntDoubleTopN topN = new IntDoubleTopN(maxLength);
+        double min = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < scores.size(); j++) {
+            int iidx = scores.key(j);
+            double v = scores.get(iidx);
+            if (!(v < min) && filter.test(iidx) && topN.add(iidx, v) && topN.size() == maxLength) {
+                min = topN.peekDouble();
+            }
+        }
+
+        return toRecommendation(uidx, topN);
+    }
+
+    @Override
+    public FastRecommendation getRecommendation(int uidx, IntStream candidates) {
+        if (uidx == -1) {
+            return new FastRecommendation(uidx, new int[0], new double[0]);
         }
 
-        final IntDoubleTopN topN = new IntDoubleTopN(maxLength);
-        scoresMap.int2DoubleEntrySet().forEach(e -> {
-            int iidx = e.getIntKey();
-            double score = e.getDoubleValue();
-            if (filter.test(iidx)) {
-                topN.add(iidx, score);
+        int[] cs = candidates.filter(iidx -> iidx >= 0).toArray();
+        boolean[] mask = masks.get();
+        for (int iidx : cs) {
+            mask[iidx] = true;
+        }
+
+        DenseAccumulator scores = getScoresBuffer(uidx, mask);
+
+        IntDoubleTopN topN = new IntDoubleTopN(Math.min(cs.length, scores.size()));
+        for (int j = 0; j < scores.size(); j++) {
+            int iidx = scores.key(j);
+            if (mask[iidx]) {
+                topN.add(iidx, scores.get(iidx));
             }
-        });
+        }
+
+        for (int iidx : cs) {
+            mask[iidx] = false;
+        }
+
+        return toRecommendation(uidx, topN);
+    }
+
+    /**
+     * Returns the scores of a user in the buffer of the calling thread. The
+     * buffer is overwritten by the next call of the same thread to this
+     * method or to the recommendation methods.
+     *
+     * @param uidx index of the user whose scores are predicted
+     * @return buffer with the item-score pairs
+     */
+    public DenseAccumulator getScoresBuffer(int uidx) {
+        DenseAccumulator scores = buffers.get();
+        scores.clear();
+        getScores(uidx, scores);
+
+        return scores;
+    }
+
+    /**
+     * Returns the scores of a user for, at least, a set of candidate items in
+     * the buffer of the calling thread. The buffer is overwritten by the next
+     * call of the same thread to this method or to the recommendation
+     * methods.
+     *
+     * @param uidx index of the user whose scores are predicted
+     * @param candidates mask of the candidate item indexes
+     * @return buffer with the item-score pairs
+     */
+    public DenseAccumulator getScoresBuffer(int uidx, boolean[] candidates) {
+        DenseAccumulator scores = buffers.get();
+        scores.clear();
+        getScores(uidx, candidates, scores);
 
-        topN.sort();
+        return scores;
+    }
 
-        List<IdxDouble> items = topN.reverseStream()
-                .map(e -> new IdxDouble(e))
-                .collect(Collectors.toList());
+    /**
+     * Adds the predicted scores of a user for, at least, a set of candidate
+     * items into an empty buffer. By default, it adds the scores of all the
+     * items with {@link #getScores(int, DenseAccumulator)}; subclasses should
+     * override it to score only the candidates.
+     *
+     * @param uidx index of the user whose scores are predicted
+     * @param candidates mask of the candidate item indexes
+     * @param scores buffer where the item-score pairs are added
+     */
+    protected void getScores(int uidx, boolean[] candidates, DenseAccumulator scores) {
+        getScores(uidx, scores);
+    }
 
-        return new FastRecommendation(uidx, items);
+    /**
+     * Adds the predicted scores of a user into an empty buffer. By default, it
+     * copies the map returned by {@link #getScoresMap(int)}.
+     *
+     * @param uidx index of the user whose scores are predicted
+     * @param scores buffer where the item-score pairs are added
+     */
+    protected void getScores(int uidx, DenseAccumulator scores) {
+        getScoresMap(uidx).int2DoubleEntrySet().forEach(e -> scores.add(e.getIntKey(), e.getDoubleValue()));
     }
 
     /**
@@ -11,19 +11,23 @@ package es.uam.eps.ir.ranksys.rec.runner;
 import es.uam.eps.ir.ranksys.core.Recommendation;
 import es.uam.eps.ir.ranksys.core.format.RecommendationFormat;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.function.Function;
 import java.util.logging.Level;
 import static java.util.logging.Logger.getLogger;
 import java.util.stream.Collectors;
+import static java.util.stream.IntStream.range;
 import java.util.stream.Stream;
+import org.ranksys.rec.runner.OrderedPipeline;
 
 /**
  * Generic recommender runner. This class handles the print of the output.
+ * Recommendations are generated by a pool of worker threads and printed in
+ * the order of the users by the calling thread through an
+ * {@link OrderedPipeline}, which bounds the number of recommendations waiting
+ * to be printed.
  *
  * @author Saúl Vargas (saul.vargas@uam.es)
  * 
@@ -32,18 +36,37 @@ import java.util.stream.Stream;
  */
 public abstract class AbstractRecommenderRunner<U, I> implements RecommenderRunner<U, I> {
 
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+
     private final List<U> users;
     private final RecommendationFormat<U, I> format;
+    private final int numThreads;
+    private final int bufferSize;
 
     /**
-     * Constructor.
+     * Constructor. It uses as many threads as available processors.
      *
      * @param users target users for which recommendations are generated
      * @param format output recommendation format
      */
     public AbstractRecommenderRunner(Stream<U> users, RecommendationFormat<U, I> format) {
+        this(users, format, Runtime.getRuntime().availableProcessors(), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param users target users for which recommendations are generated
+     * @param format output recommendation format
+     * @param numThreads number of threads generating recommendations
+     * @param bufferSize maximum number of recommendations waiting to be
+     * printed
+     */
+    public AbstractRecommenderRunner(Stream<U> users, RecommendationFormat<U, I> format, int numThreads, int bufferSize) {
         this.users = users.sorted().collect(Collectors.toList());
         this.format = format;
+        this.numThreads = numThreads;
+        this.bufferSize = bufferSize;
     }
 
     /**
@@ -56,27 +79,36 @@ public abstract class AbstractRecommenderRunner<U, I> implements RecommenderRunn
      */
     protected void run(Function<U, Recommendation<U, I>> recProvider, OutputStream out) throws IOException {
         try (RecommendationFormat.Writer<U, I> writer = format.getWriter(out)) {
-            Map<U, Recommendation<U, I>> pendingRecommendations = new HashMap<>();
-            List<U> usersAux = new ArrayList<>(users);
-            
-            users.parallelStream()
-                    .map(user -> recProvider.apply(user))
-                    .forEachOrdered(recommendation -> {
-                        if (recommendation.getUser().equals(usersAux.get(0))) {
-                            writeCatchExceptions(writer, recommendation);
-                            usersAux.remove(0);
+            new OrderedPipeline<U, Recommendation<U, I>>(numThreads, bufferSize)
+                    .run(users, recProvider, recommendation -> writeCatchExceptions(writer, recommendation));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
 
-                            while (!usersAux.isEmpty() && pendingRecommendations.containsKey(usersAux.get(0))) {
-                                recommendation = pendingRecommendations.get(usersAux.get(0));
-                                writeCatchExceptions(writer, recommendation);
-                                usersAux.remove(0);
-                            }
-                        } else {
-                            pendingRecommendations.put(recommendation.getUser(), recommendation);
-                        }
-                    });
+    /**
+     * Prints the recommendations, which are generated in batches of users.
+     * Batches are processed in parallel and printed in order.
+     *
+     * @param recProvider function that provides the recommendations of a
+     * batch of users, in the same order
+     * @param batchSize number of users per batch
+     * @param out output stream through which recommendations are printed
+     * @throws IOException when IO error
+     */
+    protected void runBatches(Function<List<U>, List<Recommendation<U, I>>> recProvider, int batchSize, OutputStream out) throws IOException {
+        int numBatches = (users.size() + batchSize - 1) / batchSize;
+        List<List<U>> batches = range(0, numBatches)
+                .mapToObj(b -> users.subList(b * batchSize, Math.min(users.size(), (b + 1) * batchSize)))
+                .collect(Collectors.toList());
 
-            usersAux.forEach(user -> writeCatchExceptions(writer, pendingRecommendations.get(user)));
+        try (RecommendationFormat.Writer<U, I> writer = format.getWriter(out)) {
+            new OrderedPipeline<List<U>, List<Recommendation<U, I>>>(numThreads, Math.max(numThreads, bufferSize / batchSize))
+                    .run(batches, recProvider, recommendations -> recommendations.forEach(recommendation -> writeCatchExceptions(writer, recommendation)));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
         }
     }
 
@@ -19,10 +19,13 @@ import es.uam.eps.ir.ranksys.rec.fast.FastRecommender;
 import es.uam.eps.ir.ranksys.rec.runner.AbstractRecommenderRunner;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
+import org.ranksys.rec.fast.FastBatchRecommender;
 
 /**
  * Fast filter runner. It creates recommendations by using the filter method in the
@@ -39,6 +42,7 @@ public class FastFilterRecommenderRunner<U, I> extends AbstractRecommenderRunner
     private final FastItemIndex<I> itemIndex;
     private final Function<U, IntPredicate> userFilter;
     private final int maxLength;
+    private final int batchSize;
 
     /**
      * Constructor.
@@ -51,20 +55,55 @@ public class FastFilterRecommenderRunner<U, I> extends AbstractRecommenderRunner
      * @param maxLength maximum length of the recommendation lists, 0 for no limit
      */
     public FastFilterRecommenderRunner(FastUserIndex<U> userIndex, FastItemIndex<I> itemIndex, Set<U> users, RecommendationFormat<U, I> format, Function<U, IntPredicate> userFilter, int maxLength) {
+        this(userIndex, itemIndex, users, format, userFilter, maxLength, 1);
+    }
+
+    /**
+     * Constructor. Recommenders implementing {@link FastBatchRecommender}
+     * generate the recommendations of batches of users at once.
+     *
+     * @param userIndex fast user index
+     * @param itemIndex fast item index
+     * @param users target users
+     * @param format output recommendation format
+     * @param userFilter item filter provider for each user
+     * @param maxLength maximum length of the recommendation lists, 0 for no limit
+     * @param batchSize number of users per batch
+     */
+    public FastFilterRecommenderRunner(FastUserIndex<U> userIndex, FastItemIndex<I> itemIndex, Set<U> users, RecommendationFormat<U, I> format, Function<U, IntPredicate> userFilter, int maxLength, int batchSize) {
         super(users.stream(), format);
         this.userIndex = userIndex;
         this.itemIndex = itemIndex;
         this.userFilter = userFilter;
         this.maxLength = maxLength;
+        this.batchSize = batchSize;
     }
 
     @Override
     public void run(Recommender<U, I> recommender, OutputStream out) throws IOException {
-        run(user -> {
-            FastRecommendation rec = ((FastRecommender<U, I>) recommender).getRecommendation(userIndex.user2uidx(user), maxLength, userFilter.apply(user));
-            
-            return new Recommendation<>(userIndex.uidx2user(rec.getUidx()), rec.getIidxs().stream().map(iv -> new IdDouble<I>(itemIndex.iidx2item(iv.idx), iv.v)).collect(Collectors.toList()));
-        }, out);
+        if (batchSize > 1 && recommender instanceof FastBatchRecommender) {
+            runBatches(users -> {
+                int[] uidxs = users.stream().mapToInt(userIndex::user2uidx).toArray();
+                List<IntPredicate> filters = users.stream().map(userFilter).collect(Collectors.toList());
+                
+                return ((FastBatchRecommender<U, I>) recommender).getRecommendations(uidxs, maxLength, filters).stream()
+                        .map(this::toRecommendation)
+                        .collect(Collectors.toList());
+            }, batchSize, out);
+        } else {
+            run(user -> toRecommendation(((FastRecommender<U, I>) recommender).getRecommendation(userIndex.user2uidx(user), maxLength, userFilter.apply(user))), out);
+        }
+    }
+
+    private Recommendation<U, I> toRecommendation(FastRecommendation rec) {
+        int[] iidxs = rec.getIidxArray();
+        double[] vs = rec.getScoreArray();
+        List<IdDouble<I>> items = new ArrayList<>(iidxs.length);
+        for (int j = 0; j < iidxs.length; j++) {
+            items.add(new IdDouble<>(itemIndex.iidx2item(iidxs[j]), vs[j]));
+        }
+
+        return new Recommendation<>(userIndex.uidx2user(rec.getUidx()), items);
     }
 
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.rec.fast;
+
+import es.uam.eps.ir.ranksys.fast.FastRecommendation;
+import es.uam.eps.ir.ranksys.rec.fast.FastRecommender;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Fast recommender that can generate the recommendations of several users at
+ * once, sharing work among them. For example, a matrix factorization
+ * recommender can score a block of users against each tile of the item
+ * matrix while it is in cache.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ * @param <U> user type
+ * @param <I> item type
+ */
+public interface FastBatchRecommender<U, I> extends FastRecommender<U, I> {
+
+    /**
+     * Filter recommendation for a batch of users. The default implementation
+     * generates the recommendations one user at a time.
+     *
+     * @param uidxs indexes of the users to be issued a recommendation
+     * @param maxLength maximum length of recommendation, set to 0 for no limit
+     * @param filters (fast) filters of each user
+     * @return a (fast) recommendation list for each user, in the same order
+     */
+    public default List<FastRecommendation> getRecommendations(int[] uidxs, int maxLength, List<IntPredicate> filters) {
+        List<FastRecommendation> recs = new ArrayList<>(uidxs.length);
+        for (int j = 0; j < uidxs.length; j++) {
+            recs.add(getRecommendation(uidxs[j], maxLength, filters.get(j)));
+        }
+        return recs;
+    }
+}
@@ -11,6 +11,7 @@ import es.uam.eps.ir.ranksys.rec.fast.FastRankingRecommender;
 import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
 import java.util.Map.Entry;
+import org.ranksys.fast.utils.DenseAccumulator;
 
 /**
  * Ensemble of recommenders, performs a linear combination of the scores
@@ -59,4 +60,29 @@ public class FastEnsembleRecommender<U, I> extends FastRankingRecommender<U, I>
         return scoresMap;
     }
 
+    @Override
+    protected void getScores(int uidx, DenseAccumulator scores) {
+        for (Entry<FastRankingRecommender<U, I>, Double> rw : recommenders) {
+            double w = rw.getValue();
+            DenseAccumulator rs = rw.getKey().getScoresBuffer(uidx);
+            for (int j = 0; j < rs.size(); j++) {
+                int iidx = rs.key(j);
+                scores.add(iidx, w * rs.get(iidx));
+            }
+        }
+    }
+
+    @Override
+    protected void getScores(int uidx, boolean[] candidates, DenseAccumulator scores) {
+        for (Entry<FastRankingRecommender<U, I>, Double> rw : recommenders) {
+            double w = rw.getValue();
+            DenseAccumulator rs = rw.getKey().getScoresBuffer(uidx, candidates);
+            for (int j = 0; j < rs.size(); j++) {
+                int iidx = rs.key(j);
+                if (candidates[iidx]) {
+                    scores.add(iidx, w * rs.get(iidx));
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015 RankSys http://ranksys.org
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package org.ranksys.rec.runner;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Parallel map of a list of tasks whose results are consumed in the order of
+ * the tasks. Worker threads take tasks by sequence number and store their
+ * results in a ring buffer, from which the calling thread consumes them in
+ * order. A worker does not start a task until its slot of the buffer is free,
+ * so that at most as many results as the size of the buffer are kept in
+ * memory, whatever the number of tasks, and each result is stored and
+ * consumed in constant time.
+ *
+ * @author Saúl Vargas (Saul.Vargas@glasgow.ac.uk)
+ *
+ * @param <T> type of the tasks
+ * @param <R> type of the results
+ */
+public class OrderedPipeline<T, R> {
+
+    private static final Object NULL = new Object();
+
+    private final int numWorkers;
+    private final int bufferSize;
+
+    /**
+     * Constructor.
+     *
+     * @param numWorkers number of worker threads
+     * @param bufferSize maximum number of results waiting to be consumed
+     */
+    public OrderedPipeline(int numWorkers, int bufferSize) {
+        if (numWorkers < 1 || bufferSize < 1) {
+            throw new IllegalArgumentException("numWorkers and bufferSize must be positive");
+        }
+        this.numWorkers = numWorkers;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Maps the tasks in parallel and consumes the results in order in the
+     * calling thread. If a task fails, no more tasks are started and its
+     * exception is re-thrown once the running tasks finish.
+     *
+     * @param tasks list of tasks
+     * @param mapper function that calculates the result of a task
+     * @param consumer consumer of the results, in the order of the tasks
+     * @throws InterruptedException when the calling thread is interrupted
+     */
+    public void run(List<T> tasks, Function<T, R> mapper, Consumer<R> consumer) throws InterruptedException {
+        new Execution(tasks, mapper).run(consumer);
+    }
+
+    private class Execution {
+
+        private final List<T> tasks;
+        private final Function<T, R> mapper;
+        private final Object[] ring;
+        private final AtomicInteger next;
+        private final ReentrantLock lock;
+        private final Condition produced;
+        private final Condition consumed;
+        private int numConsumed;
+        private Throwable error;
+
+        public Execution(List<T> tasks, Function<T, R> mapper) {
+            this.tasks = tasks;
+            this.mapper = mapper;
+            this.ring = new Object[bufferSize];
+            this.next = new AtomicInteger();
+            this.lock = new ReentrantLock();
+            this.produced = lock.newCondition();
+            this.consumed = lock.newCondition();
+            this.numConsumed = 0;
+            this.error = null;
+        }
+
+        @SuppressWarnings("unchecked")
+        public void run(Consumer<R> consumer) throws InterruptedException {
+            int n = tasks.size();
+            Thread[] workers = new Thread[Math.min(numWorkers, n)];
+            for (int w = 0; w < workers.length; w++) {
+                workers[w] = new Thread(this::work, "ordered-pipeline-worker-" + w);
+                workers[w].setDaemon(true);
+                workers[w].start();
+            }
+
+            try {
+                for (int s = 0; s < n; s++) {
+                    Object r;
+                    lock.lock();
+                    try {
+                        int slot = s % bufferSize;
+                        while (ring[slot] == null && error == null) {
+                            produced.await();
+                        }
+                        if (error != null) {
+                            break;
+                        }
+                        r = ring[slot];
+                        ring[slot] = null;
+                        numConsumed = s + 1;
+                        consumed.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+
+                    consumer.accept(r == NULL ? null : (R) r);
+                }
+            } catch (InterruptedException | RuntimeException | Error ex) {
+                fail(ex);
+                throw ex;
+            } finally {
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+            }
+
+            if (error instanceof InterruptedException) {
+                throw (InterruptedException) error;
+            } else if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            }
+        }
+
+        private void work() {
+            int n = tasks.size();
+            try {
+                for (int s = next.getAndIncrement(); s < n; s = next.getAndIncrement()) {
+                    lock.lock();
+                    try {
+                        while (s >= numConsumed + bufferSize && error == null) {
+                            consumed.await();
+                        }
+                        if (error != null) {
+                            return;
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+
+                    R r = mapper.apply(tasks.get(s));
+
+                    lock.lock();
+                    try {
+                        ring[s % bufferSize] = r == null ? NULL : r;
+                        if (s == numConsumed) {
+                            produced.signal();
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            } catch (InterruptedException | RuntimeException | Error ex) {
+                fail(ex);
+            }
+        }
+
+        private void fail(Throwable ex) {
+            lock.lock();
+            try {
+                if (error == null) {
+                    error = ex;
+                }
+                produced.signalAll();
+                consumed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}